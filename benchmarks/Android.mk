@@ -0,0 +1,19 @@
+LOCAL_PATH:= $(call my-dir)
+
+ifeq ($(TARGET_DEVICE),m2note)
+include $(CLEAR_VARS)
+
+# Host-side benchmarks for keyhandler and CMActions, built against the
+# minimal framework stand-ins in ../hoststubs instead of the real framework.
+LOCAL_MODULE := com.cyanogenmod.keyhandler-benchmarks
+LOCAL_SRC_FILES := $(call all-java-files-under,src) \
+    ../keyhandler/src/com/cyanogenmod/settings/device/GestureActions.java \
+    ../cmhw/org/cyanogenmod/hardware/SysfsNode.java \
+    ../cmactions/src/com/cyanogenmod/settings/device/GestureController.java \
+    ../cmactions/src/com/cyanogenmod/settings/device/utils/FileUtils.java
+LOCAL_STATIC_JAVA_LIBRARIES := com.cyanogenmod.keyhandler-hoststubs
+LOCAL_JAR_MANIFEST := manifest.txt
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+endif
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Host-side benchmarks for the keyhandler and CMActions hot paths.
+ *
+ * Each benchmark is warmed up, then run for a fixed time and reported as
+ * throughput, average time and bytes allocated per operation. Temp files
+ * stand in for the mx-gs sysfs nodes.
+ *
+ * java -jar com.cyanogenmod.keyhandler-benchmarks.jar [name-filter]
+ */
+public class BenchmarkRunner {
+
+    interface Benchmark {
+        /**
+         * Runs one operation. The result is consumed so the JIT can't drop it.
+         */
+        long run() throws Exception;
+    }
+
+    private static final long WARMUP_NS = 1000000000L;
+    private static final long MEASURE_NS = 2000000000L;
+    private static final int BATCH = 256;
+
+    private final String mFilter;
+    private final File mTempDir;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private long mBlackhole;
+
+    BenchmarkRunner(String filter, File tempDir) {
+        mFilter = filter;
+        mTempDir = tempDir;
+    }
+
+    /**
+     * Creates a file in the scratch directory holding the given contents.
+     */
+    File createNode(String name, String contents) throws IOException {
+        File node = new File(mTempDir, name);
+        node.deleteOnExit();
+        java.io.FileOutputStream fos = new java.io.FileOutputStream(node);
+        try {
+            fos.write(contents.getBytes());
+        } finally {
+            fos.close();
+        }
+        return node;
+    }
+
+    void run(String name, Benchmark benchmark) throws Exception {
+        if (mFilter != null && !name.contains(mFilter)) {
+            return;
+        }
+        loop(benchmark, WARMUP_NS);
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        long ops = loop(benchmark, MEASURE_NS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        double opsPerSec = ops * 1e9 / elapsed;
+        String bytesPerOp = allocatedBefore < 0
+                ? "n/a" : String.format("%.1f", (double) allocated / ops);
+        String allocRate = allocatedBefore < 0
+                ? "n/a" : String.format("%.1f", allocated * 1e9 / elapsed / (1024 * 1024));
+        System.out.println(String.format("%-40s %14.0f %10.1f %10s %10s",
+                name, opsPerSec, (double) elapsed / ops, bytesPerOp, allocRate));
+    }
+
+    private long loop(Benchmark benchmark, long durationNs) throws Exception {
+        long deadline = System.nanoTime() + durationNs;
+        long ops = 0;
+        long sink = 0;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                sink += benchmark.run();
+            }
+            ops += BATCH;
+        } while (System.nanoTime() < deadline);
+        mBlackhole += sink;
+        return ops;
+    }
+
+    private long getAllocatedBytes() {
+        if (mThreadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mThreadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File tempDir = File.createTempFile("mx-gs", null);
+        tempDir.delete();
+        tempDir.mkdirs();
+        tempDir.deleteOnExit();
+
+        BenchmarkRunner runner = new BenchmarkRunner(args.length > 0 ? args[0] : null, tempDir);
+        System.out.println(String.format("%-40s %14s %10s %10s %10s",
+                "Benchmark", "ops/s", "ns/op", "B/op", "MB/s alloc"));
+        SysfsNodeBenchmark.run(runner);
+        GestureActionsBenchmark.run(runner);
+        GestureControllerBenchmark.run(runner);
+        if (runner.mBlackhole == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Preference lookup and action dispatch selection for a gesture code.
+ */
+class GestureActionsBenchmark {
+
+    private static final int[] GESTURES = {
+        KeyHandlerCodes.DOUBLE_TAP, KeyHandlerCodes.SWIPE_X_LEFT,
+        KeyHandlerCodes.SWIPE_Y_UP, KeyHandlerCodes.UNICODE_C,
+    };
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        final Map<String, String> prefs = new HashMap<String, String>();
+        prefs.put(KeyHandlerCodes.DOUBLE_TAP + "_action", "wakeUp");
+        prefs.put(KeyHandlerCodes.SWIPE_X_LEFT + "_action", "prev");
+        prefs.put(KeyHandlerCodes.SWIPE_Y_UP + "_action", "unlock");
+        prefs.put(KeyHandlerCodes.UNICODE_C + "_action", "launch$com.android.dialer");
+
+        runner.run("prefLookup.concatenatedKey", new BenchmarkRunner.Benchmark() {
+            private int mIndex;
+
+            @Override
+            public long run() {
+                int gesture = GESTURES[mIndex++ & 3];
+                return prefs.get(String.valueOf(gesture) + "_action").length();
+            }
+        });
+        runner.run("prefLookup.precomputedKey", new BenchmarkRunner.Benchmark() {
+            private int mIndex;
+
+            @Override
+            public long run() {
+                int gesture = GESTURES[mIndex++ & 3];
+                return prefs.get(GestureActions.getPrefKey(gesture)).length();
+            }
+        });
+        runner.run("dispatch.selectAction", new BenchmarkRunner.Benchmark() {
+            private int mIndex;
+
+            @Override
+            public long run() {
+                int gesture = GESTURES[mIndex++ & 3];
+                return GestureActions.fromPref(prefs.get(GestureActions.getPrefKey(gesture)));
+            }
+        });
+    }
+
+    // KeyHandler itself needs the framework, so mirror the codes used here
+    private static final class KeyHandlerCodes {
+        static final int DOUBLE_TAP = 0xA0;
+        static final int SWIPE_X_LEFT = 0xB0;
+        static final int SWIPE_Y_UP = 0xB2;
+        static final int UNICODE_C = 0xC1;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.cyanogenmod.settings.device.utils.FileUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gesture mask computation and the gesture_control sysfs write paths.
+ */
+class GestureControllerBenchmark {
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        final File node = runner.createNode("gesture_control", "");
+        final MapPreferences prefs = new MapPreferences();
+        prefs.mValues.put(GestureController.TOUCHSCREEN_GESTURE_CONTROL_KEY, true);
+        for (int i = 0; i < GestureController.keysToMasks.size(); i += 2) {
+            prefs.mValues.put(GestureController.keysToMasks.keyAt(i) + "_enabled", true);
+        }
+        final Context context = new Context() {
+            @Override
+            public String getPackageName() {
+                return "com.cyanogenmod.settings.device";
+            }
+
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return prefs;
+            }
+        };
+
+        runner.run("mask.compute", new BenchmarkRunner.Benchmark() {
+            @Override
+            public long run() {
+                return GestureController.getGestureMask(prefs);
+            }
+        });
+        runner.run("sysfs.writeAsByte", new BenchmarkRunner.Benchmark() {
+            @Override
+            public long run() {
+                return FileUtils.writeAsByte(node.getPath(),
+                        GestureController.GESTURES_ENABLED_MASK) ? 1 : 0;
+            }
+        });
+        runner.run("sysfs.resyncGestureControl", new BenchmarkRunner.Benchmark() {
+            @Override
+            public long run() {
+                GestureController.resyncGestureControl(context, node.getPath());
+                return 1;
+            }
+        });
+        runner.run("sysfs.updateGestureControl.unchanged", new BenchmarkRunner.Benchmark() {
+            @Override
+            public long run() {
+                GestureController.updateGestureControl(context, node.getPath());
+                return 1;
+            }
+        });
+    }
+
+    private static class MapPreferences implements SharedPreferences {
+        final Map<String, Object> mValues = new HashMap<String, Object>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return mValues;
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = mValues.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = mValues.get(key);
+            return value instanceof Boolean ? (Boolean) value : defValue;
+        }
+    }
+}
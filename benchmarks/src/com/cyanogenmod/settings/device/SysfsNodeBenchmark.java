@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import org.cyanogenmod.hardware.SysfsNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Sysfs node access: gesture_data reads through the shared SysfsNode against
+ * the old open-read-close path, and the cached intensity node operations
+ * VibratorHW uses. Regular files stand in for the nodes.
+ */
+class SysfsNodeBenchmark {
+
+    static void run(BenchmarkRunner runner) throws Exception {
+        final File gestureData = runner.createNode("gesture_data", "176\n");
+        final SysfsNode gestureNode = SysfsNode.get(gestureData.getPath());
+        final SysfsNode levelNode = SysfsNode.get(
+                runner.createNode("level", "5\n").getPath());
+        try {
+            runner.run("gestureData.openReadClose", new BenchmarkRunner.Benchmark() {
+                @Override
+                public long run() throws IOException {
+                    return Integer.valueOf(readSingleLine(gestureData));
+                }
+            });
+            runner.run("gestureData.sysfsNode", new BenchmarkRunner.Benchmark() {
+                @Override
+                public long run() {
+                    return gestureNode.readInt(0);
+                }
+            });
+            runner.run("intensity.readCachedInt", new BenchmarkRunner.Benchmark() {
+                @Override
+                public long run() {
+                    return levelNode.readCachedInt(5);
+                }
+            });
+            runner.run("intensity.writeIntIfChanged.unchanged", new BenchmarkRunner.Benchmark() {
+                @Override
+                public long run() {
+                    return levelNode.writeIntIfChanged(5) ? 1 : 0;
+                }
+            });
+        } finally {
+            gestureNode.close();
+            levelNode.close();
+        }
+    }
+
+    // Previous KeyHandler implementation, kept here as the baseline
+    private static String readSingleLine(File f) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(f));
+            return reader.readLine();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,12 @@ include $(CLEAR_VARS)
 LOCAL_MODULE_TAGS := optional
 
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
+# Gesture config and trace layouts shared with the keyhandler, sysfs accessor from cmhw
+LOCAL_SRC_FILES += \
+    ../keyhandler/src/com/cyanogenmod/settings/device/GestureActions.java \
+    ../keyhandler/src/com/cyanogenmod/settings/device/GestureConfig.java \
+    ../keyhandler/src/com/cyanogenmod/settings/device/GestureTrace.java \
+    ../cmhw/org/cyanogenmod/hardware/SysfsNode.java
 
 LOCAL_PACKAGE_NAME := CMActions
 LOCAL_CERTIFICATE := platform
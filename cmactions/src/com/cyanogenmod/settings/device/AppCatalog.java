@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Apps that can be bound to a "launch$" gesture action.
+ *
+ * The catalog is built on a background thread and persisted, keyed by
+ * package name and version, so the settings screen shows the previous
+ * catalog right away and only loads labels of apps installed or updated
+ * since. Package broadcasts update single entries in place. The published
+ * list is sorted by label.
+ */
+final class AppCatalog {
+
+    private static final String TAG = "AppCatalog";
+
+    interface Listener {
+        /**
+         * Called on the main thread whenever entries were added, updated or removed.
+         */
+        void onCatalogChanged(List<Entry> entries);
+    }
+
+    static final class Entry {
+        final String packageName;
+        final int versionCode;
+        final long lastUpdateTime;
+        final String label;
+
+        Entry(String packageName, int versionCode, long lastUpdateTime, String label) {
+            this.packageName = packageName;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+            this.label = label;
+        }
+
+        boolean isCurrent(PackageInfo info) {
+            return versionCode == info.versionCode && lastUpdateTime == info.lastUpdateTime;
+        }
+    }
+
+    private static final List<String> ALLOWED_SYSTEM_APPS = Arrays.asList(
+            "com.android.dialer",
+            "com.android.mms",
+            "com.android.settings",
+            "com.android.deskclock",
+            "com.android.calculator2");
+
+    private static final String CACHE_FILE = "app_catalog";
+    private static final int CACHE_VERSION = 1;
+
+    // Labels loaded between two updates of the settings screen during a scan
+    private static final int PUBLISH_BATCH = 16;
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private static final int MSG_LOAD = 1;
+    private static final int MSG_SAVE = 2;
+
+    private static AppCatalog sInstance;
+
+    private final PackageManager mPackageManager;
+    private final AtomicFile mCacheFile;
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the worker thread
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private Collator mCollator = Collator.getInstance();
+
+    private final Comparator<Entry> mLabelOrder = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            int result = mCollator.compare(lhs.label, rhs.label);
+            return result != 0 ? result : lhs.packageName.compareTo(rhs.packageName);
+        }
+    };
+
+    private volatile List<Entry> mSnapshot = Collections.emptyList();
+    // Only touched on the main thread
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    static synchronized AppCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppCatalog(Context context) {
+        mPackageManager = context.getPackageManager();
+        mCacheFile = new AtomicFile(new File(context.getFilesDir(), CACHE_FILE));
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorker = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_LOAD:
+                        load();
+                        break;
+                    case MSG_SAVE:
+                        save();
+                        break;
+                }
+            }
+        };
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, packageFilter, null, mWorker);
+        context.registerReceiver(mLocaleReceiver,
+                new IntentFilter(Intent.ACTION_LOCALE_CHANGED), null, mWorker);
+
+        mWorker.sendEmptyMessage(MSG_LOAD);
+    }
+
+    /**
+     * @return the entries known so far, sorted by label
+     */
+    List<Entry> getEntries() {
+        return mSnapshot;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private static boolean isOffered(ApplicationInfo appInfo) {
+        return appInfo != null && ((appInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0
+                || ALLOWED_SYSTEM_APPS.contains(appInfo.packageName));
+    }
+
+    private Entry loadEntry(PackageInfo info) {
+        CharSequence label = info.applicationInfo.loadLabel(mPackageManager);
+        return new Entry(info.packageName, info.versionCode, info.lastUpdateTime,
+                label != null ? label.toString() : info.packageName);
+    }
+
+    private void load() {
+        String locale = Locale.getDefault().toString();
+        if (mEntries.isEmpty()) {
+            readCache(locale);
+            if (!mEntries.isEmpty()) {
+                publish();
+            }
+        }
+
+        boolean changed = false;
+        int loaded = 0;
+        HashSet<String> installed = new HashSet<String>();
+        for (PackageInfo info : mPackageManager.getInstalledPackages(0)) {
+            if (!isOffered(info.applicationInfo)) {
+                continue;
+            }
+            installed.add(info.packageName);
+            Entry cached = mEntries.get(info.packageName);
+            if (cached != null && cached.isCurrent(info)) {
+                continue;
+            }
+            mEntries.put(info.packageName, loadEntry(info));
+            changed = true;
+            if (++loaded % PUBLISH_BATCH == 0) {
+                publish();
+            }
+        }
+        if (mEntries.keySet().retainAll(installed)) {
+            changed = true;
+        }
+        publish();
+        if (changed) {
+            save();
+        }
+    }
+
+    private void onPackageChanged(String packageName) {
+        PackageInfo info;
+        try {
+            info = mPackageManager.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            info = null;
+        }
+        if (info == null || !isOffered(info.applicationInfo)) {
+            if (mEntries.remove(packageName) == null) {
+                return;
+            }
+        } else {
+            Entry cached = mEntries.get(packageName);
+            if (cached != null && cached.isCurrent(info)) {
+                return;
+            }
+            mEntries.put(packageName, loadEntry(info));
+        }
+        publish();
+        mWorker.removeMessages(MSG_SAVE);
+        mWorker.sendEmptyMessageDelayed(MSG_SAVE, SAVE_DELAY_MS);
+    }
+
+    private void publish() {
+        ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, mLabelOrder);
+        mSnapshot = Collections.unmodifiableList(entries);
+        mMainHandler.removeCallbacks(mNotifyListeners);
+        mMainHandler.post(mNotifyListeners);
+    }
+
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            List<Entry> entries = mSnapshot;
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                mListeners.get(i).onCatalogChanged(entries);
+            }
+        }
+    };
+
+    /**
+     * Cache layout: version, locale, entry count, then per entry the package
+     * name, version code, last update time and label. Labels depend on the
+     * locale, so a cache written under another locale is discarded.
+     */
+    private void readCache(String locale) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mCacheFile.openRead()));
+            if (in.readInt() != CACHE_VERSION || !locale.equals(in.readUTF())) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readInt(), in.readLong(), in.readUTF());
+                mEntries.put(entry.packageName, entry);
+            }
+        } catch (FileNotFoundException e) {
+            // First launch
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable app catalog cache", e);
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private void save() {
+        mWorker.removeMessages(MSG_SAVE);
+        FileOutputStream stream = null;
+        try {
+            stream = mCacheFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                out.writeUTF(entry.packageName);
+                out.writeInt(entry.versionCode);
+                out.writeLong(entry.lastUpdateTime);
+                out.writeUTF(entry.label);
+            }
+            out.flush();
+            mCacheFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write app catalog cache", e);
+            if (stream != null) {
+                mCacheFile.failWrite(stream);
+            }
+        }
+    }
+
+    // Runs on the worker thread
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() != null) {
+                onPackageChanged(intent.getData().getSchemeSpecificPart());
+            }
+        }
+    };
+
+    // Runs on the worker thread
+    private final BroadcastReceiver mLocaleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Every label has to be loaded again, and sorts differently
+            mCollator = Collator.getInstance();
+            mEntries.clear();
+            load();
+        }
+    };
+}
@@ -21,8 +21,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.content.ServiceConnection;
-import android.os.IBinder;
 import android.util.Log;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
@@ -31,8 +29,16 @@ public class BootCompletedReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(final Context context, Intent intent) {
         Log.d(TAG, "Booting");
-        enableComponent(context, TouchscreenGestureSettings.class.getName());
-        GestureController.updateGestureControl(context);
+        // PackageManager and sysfs I/O stay off the main thread
+        final PendingResult result = goAsync();
+        GestureRestore.restoreAsync(context, "boot_completed", new Runnable() {
+            @Override
+            public void run() {
+                enableComponent(context, TouchscreenGestureSettings.class.getName());
+                result.finish();
+            }
+        });
+        GestureConfig.publish(context);
     }
 
     private void enableComponent(Context context, String component) {
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.settings.device;
+
+import android.app.Application;
+import android.preference.PreferenceManager;
+
+/**
+ * The process is persistent, so the activity manager starts it while the
+ * system is coming up, long before BOOT_COMPLETED. Gestures are armed from
+ * here; BootCompletedReceiver only finds them in place.
+ */
+public class CMActionsApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        GestureRestore.restoreAsync(this, "process_start", null);
+        if (PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(GestureContextArmer.CONTEXT_ARMING_KEY, false)) {
+            GestureContextArmer.getInstance(this).setEnabled(true);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.settings.device;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Narrows or disarms the driver's gesture masks while the screen is off
+ * and the context says a detection would be a false wakeup.
+ *
+ * Proximity covered for POCKET_DEBOUNCE_MS disarms all gestures; lying
+ * face down disarms at once. The proximity sensor has to be a wakeup
+ * sensor so uncovering is seen, and the full mask restored, even while
+ * suspended. The accelerometer only runs during the debounce and only
+ * shortens it. While charging only letters stay armed, taps and swipes
+ * are what charger noise on the panel fakes. Screen on restores the full
+ * mask.
+ *
+ * Detections that never happen cannot be counted. Every PROBE_INTERVAL-th
+ * covered episode stays armed and counts the gestures KeyHandler traced
+ * meanwhile; the avoided wakeups are estimated from that rate and the
+ * time spent disarmed.
+ *
+ * The proximity sensor stays registered for the whole screen-off period,
+ * so its registered time and the readings it woke the device for are
+ * accounted here as the price of the feature.
+ */
+final class GestureContextArmer implements SensorEventListener {
+    private static final String TAG = "GestureContextArmer";
+
+    static final String CONTEXT_ARMING_KEY = "touchscreen_gesture_context_arming";
+
+    // A hand passing over the sensor is not a pocket
+    private static final long POCKET_DEBOUNCE_MS = 1000;
+    // Gravity along z below this is screen down, m/s^2
+    private static final float FACE_DOWN_Z = -7.0f;
+    private static final int PROBE_INTERVAL = 8;
+    private static final int CHARGING_ALLOWED_MASK = 0xff0000;
+
+    private static final int MSG_POCKET_TIMEOUT = 1;
+
+    private static GestureContextArmer sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final SensorManager mSensorManager;
+    private final Sensor mProximity;
+    private final Sensor mAccelerometer;
+    private final PowerManager mPowerManager;
+    private final PowerManager.WakeLock mDebounceWakeLock;
+
+    // Armer thread only
+    private boolean mEnabled;
+    private boolean mScreenOff;
+    private boolean mCharging;
+    private boolean mCovered;
+    private boolean mProbing;
+    private boolean mDisarmed;
+    private boolean mFaceDownListening;
+    private int mCoveredEpisodes;
+    private long mCoveredUptime;
+    private long mCoveredElapsed;
+    private int mAllowedMask = GestureController.ALLOW_ALL;
+    private long mRestrictedSince;
+
+    // Guarded by this
+    private long mDisarmCount;
+    private long mDisarmedMs;
+    private long mNarrowCount;
+    private long mNarrowedMs;
+    private long mProbeCount;
+    private long mProbeMs;
+    private long mProbeDetections;
+    private long mSensorSince = -1;
+    private long mSensorMs;
+    private long mSensorEvents;
+
+    private GestureContextArmer(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_POCKET_TIMEOUT) {
+                    onPocketTimeout();
+                }
+            }
+        };
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mProximity = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY, true);
+        mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mDebounceWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        mDebounceWakeLock.setReferenceCounted(false);
+        if (mProximity == null) {
+            Log.i(TAG, "No wakeup proximity sensor, only narrowing while charging");
+        }
+    }
+
+    static synchronized GestureContextArmer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GestureContextArmer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The instance if the mode was ever enabled in this process, else null
+     */
+    static synchronized GestureContextArmer peekInstance() {
+        return sInstance;
+    }
+
+    void setEnabled(final boolean enabled) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (enabled != mEnabled) {
+                    if (enabled) {
+                        start();
+                    } else {
+                        stop();
+                    }
+                }
+            }
+        });
+    }
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                onScreenOff();
+            } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
+                onScreenOn();
+            } else if (Intent.ACTION_POWER_CONNECTED.equals(action)) {
+                mCharging = true;
+                update();
+            } else if (Intent.ACTION_POWER_DISCONNECTED.equals(action)) {
+                mCharging = false;
+                update();
+            }
+        }
+    };
+
+    private void start() {
+        mEnabled = true;
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        mContext.registerReceiver(mReceiver, filter, null, mHandler);
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        mCharging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        if (!mPowerManager.isInteractive()) {
+            onScreenOff();
+        }
+    }
+
+    private void stop() {
+        mContext.unregisterReceiver(mReceiver);
+        onScreenOn();
+        mEnabled = false;
+    }
+
+    private void onScreenOff() {
+        mScreenOff = true;
+        if (mProximity != null && mSensorManager.registerListener(this, mProximity,
+                SensorManager.SENSOR_DELAY_NORMAL, mHandler)) {
+            synchronized (this) {
+                mSensorSince = SystemClock.elapsedRealtime();
+            }
+        }
+        update();
+    }
+
+    private void onScreenOn() {
+        mScreenOff = false;
+        if (mProximity != null) {
+            mSensorManager.unregisterListener(this, mProximity);
+            synchronized (this) {
+                if (mSensorSince >= 0) {
+                    mSensorMs += SystemClock.elapsedRealtime() - mSensorSince;
+                    mSensorSince = -1;
+                }
+            }
+        }
+        onUncovered();
+        update();
+        Log.d(TAG, "Screen on, " + this);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (event.sensor == mProximity) {
+            if (mScreenOff) {
+                synchronized (this) {
+                    mSensorEvents++;
+                }
+            }
+            boolean covered = event.values[0] < mProximity.getMaximumRange();
+            if (covered && !mCovered && mScreenOff) {
+                onCovered();
+            } else if (!covered && mCovered) {
+                onUncovered();
+                update();
+            }
+        } else if (event.sensor == mAccelerometer && mFaceDownListening
+                && event.values[2] < FACE_DOWN_Z) {
+            onPocketTimeout();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    private void onCovered() {
+        mCovered = true;
+        mCoveredUptime = SystemClock.uptimeMillis();
+        mCoveredElapsed = SystemClock.elapsedRealtime();
+        mProbing = ++mCoveredEpisodes % PROBE_INTERVAL == 0;
+        if (mProbing) {
+            return;
+        }
+        // Keep the SoC up for the debounce, the timeout would stall in suspend
+        mDebounceWakeLock.acquire(POCKET_DEBOUNCE_MS * 2);
+        mHandler.sendEmptyMessageDelayed(MSG_POCKET_TIMEOUT, POCKET_DEBOUNCE_MS);
+        if (mAccelerometer != null) {
+            mFaceDownListening = true;
+            mSensorManager.registerListener(this, mAccelerometer,
+                    SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+        }
+    }
+
+    private void onPocketTimeout() {
+        stopDebounce();
+        if (mCovered && !mProbing) {
+            mDisarmed = true;
+            update();
+        }
+    }
+
+    private void onUncovered() {
+        stopDebounce();
+        mDisarmed = false;
+        if (!mCovered) {
+            return;
+        }
+        mCovered = false;
+        if (mProbing) {
+            mProbing = false;
+            finishProbe(mCoveredUptime, SystemClock.uptimeMillis(),
+                    SystemClock.elapsedRealtime() - mCoveredElapsed);
+        }
+    }
+
+    private void stopDebounce() {
+        mHandler.removeMessages(MSG_POCKET_TIMEOUT);
+        if (mFaceDownListening) {
+            mFaceDownListening = false;
+            mSensorManager.unregisterListener(this, mAccelerometer);
+        }
+        mDebounceWakeLock.release();
+    }
+
+    /**
+     * Counts the gestures KeyHandler traced while the probe was covered
+     */
+    private void finishProbe(long startUptime, long endUptime, long elapsedMs) {
+        long detections = 0;
+        try {
+            for (GestureTrace.Entry e : GestureTrace.read(new File(GestureTrace.DEFAULT_FILE))) {
+                if (e.eventTimeNs >= startUptime * 1000000L
+                        && e.eventTimeNs <= endUptime * 1000000L) {
+                    detections++;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the gesture trace, dropping probe", e);
+            return;
+        }
+        synchronized (this) {
+            mProbeCount++;
+            mProbeMs += elapsedMs;
+            mProbeDetections += detections;
+        }
+    }
+
+    private void update() {
+        int allowed = GestureController.ALLOW_ALL;
+        if (mEnabled && mScreenOff) {
+            if (mDisarmed) {
+                allowed = 0;
+            } else if (mCharging) {
+                allowed = CHARGING_ALLOWED_MASK;
+            }
+        }
+        if (allowed == mAllowedMask) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            if (mAllowedMask == 0) {
+                mDisarmedMs += now - mRestrictedSince;
+            } else if (mAllowedMask != GestureController.ALLOW_ALL) {
+                mNarrowedMs += now - mRestrictedSince;
+            }
+            if (allowed == 0) {
+                mDisarmCount++;
+            } else if (allowed != GestureController.ALLOW_ALL) {
+                mNarrowCount++;
+            }
+        }
+        boolean wasAllowAll = mAllowedMask == GestureController.ALLOW_ALL;
+        mAllowedMask = allowed;
+        mRestrictedSince = now;
+        if (!GestureController.restrictGestureControl(mContext, allowed)) {
+            Log.w(TAG, "Unable to apply gesture mask " + Integer.toHexString(allowed));
+        }
+        if (wasAllowAll) {
+            // A stamp written before the restriction took effect no longer
+            // describes what the driver holds
+            GestureRestore.forget(mContext);
+        }
+    }
+
+    /**
+     * Estimated wakeups avoided by disarming, -1 until a probe was taken
+     */
+    synchronized long getAvoidedWakeups() {
+        return mProbeMs > 0 ? mDisarmedMs * mProbeDetections / mProbeMs : -1;
+    }
+
+    /**
+     * Time the proximity sensor was registered, including a running period
+     */
+    synchronized long getSensorMs() {
+        return mSensorMs + (mSensorSince >= 0 ? SystemClock.elapsedRealtime() - mSensorSince : 0);
+    }
+
+    /**
+     * Proximity readings delivered while the screen was off, each one a wakeup
+     */
+    synchronized long getSensorEvents() {
+        return mSensorEvents;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "disarms=" + mDisarmCount + " disarmed_ms=" + mDisarmedMs
+                + " narrows=" + mNarrowCount + " narrowed_ms=" + mNarrowedMs
+                + " probes=" + mProbeCount + " probe_ms=" + mProbeMs
+                + " probe_detections=" + mProbeDetections
+                + " avoided_wakeups=" + getAvoidedWakeups()
+                + " sensor_ms=" + getSensorMs() + " sensor_events=" + mSensorEvents;
+    }
+}
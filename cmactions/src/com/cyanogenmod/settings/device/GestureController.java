@@ -24,7 +24,10 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 import android.util.SparseIntArray;
 
-import com.cyanogenmod.settings.device.utils.FileUtils;
+import org.cyanogenmod.hardware.SysfsNode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class GestureController {
     private static final String TAG = GestureController.class.getSimpleName();
@@ -76,37 +79,192 @@ public class GestureController {
         keysToMasks.put(UNICODE_Z, 0x400000);
     }
 
-    public static void updateGestureControl(Context context) {
+    // Record type byte the driver expects for each 8-bit group of the mask
+    private static final int RECORD_SWIPE = 4;
+    private static final int RECORD_DOUBLE_TAP = 2;
+    private static final int RECORD_UNICODE = 3;
+    private static final int[] GROUP_RECORDS = {RECORD_SWIPE, RECORD_DOUBLE_TAP, RECORD_UNICODE};
+
+    private static final int UNKNOWN = -1;
+
+    // Gestures GestureContextArmer currently lets through, see restrictGestureControl()
+    static final int ALLOW_ALL = 0xffffff;
+    private static int sAllowedMask = ALLOW_ALL;
+
+    // Last state written to the kernel, UNKNOWN until the first commit
+    private static int sCommittedMaster = UNKNOWN;
+    private static final int[] sCommittedGroups = {UNKNOWN, UNKNOWN, UNKNOWN};
+
+    /**
+     * Applies the saved gesture configuration, writing only what differs
+     * from the state last committed to the driver.
+     *
+     * @return false if the driver rejected a write
+     */
+    public static boolean updateGestureControl(Context context) {
+        return updateGestureControl(context, TOUCHSCREEN_GESTURE_CONTROL_NODE);
+    }
+
+    /**
+     * Forgets the committed state and rewrites the full configuration.
+     * Use at boot or after the touch controller was reset.
+     *
+     * @return false if the driver rejected a write
+     */
+    public static boolean resyncGestureControl(Context context) {
+        return resyncGestureControl(context, TOUCHSCREEN_GESTURE_CONTROL_NODE);
+    }
+
+    static synchronized boolean resyncGestureControl(Context context, String node) {
+        invalidate();
+        return updateGestureControl(context, node);
+    }
+
+    static synchronized boolean updateGestureControl(Context context, String node) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-        if (sharedPreferences.getBoolean(TOUCHSCREEN_GESTURE_CONTROL_KEY, false)) {
-            int gestureMask = 0x000000;
-            FileUtils.writeAsByte(TOUCHSCREEN_GESTURE_CONTROL_NODE, GESTURES_ENABLED_MASK);
-            for (int i = 0; i < keysToMasks.size(); i++) {
-                int key = keysToMasks.keyAt(i);
-                int mask = keysToMasks.get(key);
-                if (sharedPreferences.getBoolean(key + "_enabled", false))
-                    gestureMask += mask;
+        boolean enabled = sharedPreferences.getBoolean(TOUCHSCREEN_GESTURE_CONTROL_KEY, false);
+        return commitAllowed(node, enabled, enabled ? getGestureMask(sharedPreferences) : 0);
+    }
+
+    /**
+     * Limits the armed gestures to allowedMask until called again with
+     * ALLOW_ALL. Nothing left to detect disarms the driver.
+     *
+     * @return false if the driver rejected a write
+     */
+    static synchronized boolean restrictGestureControl(Context context, int allowedMask) {
+        sAllowedMask = allowedMask;
+        return updateGestureControl(context, TOUCHSCREEN_GESTURE_CONTROL_NODE);
+    }
+
+    /**
+     * Rewrites the given configuration in full, see GestureRestore.
+     */
+    static synchronized boolean resyncGestureControl(String node, boolean enabled,
+            int gestureMask) {
+        invalidate();
+        return commitAllowed(node, enabled, gestureMask);
+    }
+
+    /**
+     * Takes the given configuration as committed without writing it, for
+     * when the driver is known to hold it already.
+     */
+    static synchronized void assumeCommitted(boolean enabled, int gestureMask) {
+        if (enabled) {
+            sCommittedMaster = GESTURES_ENABLED_MASK;
+            for (int i = 0; i < GROUP_RECORDS.length; i++) {
+                sCommittedGroups[i] = groupOf(gestureMask, i);
             }
-            byte swipeMask = (byte) (gestureMask & 0xff);
-            FileUtils.writeByteArray(TOUCHSCREEN_GESTURE_CONTROL_NODE, new byte[]{swipeMask, 0, 4, 0});
-            byte doubleTapMask = (byte) ((gestureMask >> 8) & 0xff);
-            FileUtils.writeByteArray(TOUCHSCREEN_GESTURE_CONTROL_NODE, new byte[]{doubleTapMask, 0, 2, 0});
-            byte unicodeMask = (byte) ((gestureMask >> 16) & 0xff);
-            FileUtils.writeByteArray(TOUCHSCREEN_GESTURE_CONTROL_NODE, new byte[]{unicodeMask, 0, 3, 0});
         } else {
-            FileUtils.writeAsByte(TOUCHSCREEN_GESTURE_CONTROL_NODE, GESTURES_DISABLED_MASK);
+            sCommittedMaster = GESTURES_DISABLED_MASK;
+            Arrays.fill(sCommittedGroups, UNKNOWN);
+        }
+    }
+
+    /**
+     * The mask the driver is given for this configuration under the current
+     * restriction, or -1 if gestures end up disabled
+     */
+    static synchronized int getArmedMask(boolean enabled, int gestureMask) {
+        if (!enabled) {
+            return -1;
+        }
+        if (sAllowedMask == ALLOW_ALL) {
+            return gestureMask;
+        }
+        int allowed = gestureMask & sAllowedMask;
+        return allowed != 0 ? allowed : -1;
+    }
+
+    private static boolean commitAllowed(String node, boolean enabled, int gestureMask) {
+        if (sAllowedMask == ALLOW_ALL) {
+            return commit(node, enabled, gestureMask);
         }
+        int allowed = gestureMask & sAllowedMask;
+        return commit(node, enabled && allowed != 0, allowed);
     }
 
-    public static void masterSwitch(boolean enabled) {
+    private static boolean commit(String node, boolean enabled, int gestureMask) {
+        int master = enabled ? GESTURES_ENABLED_MASK : GESTURES_DISABLED_MASK;
+        boolean writeMaster = sCommittedMaster != master;
+        boolean writeGroups = false;
+        if (enabled) {
+            for (int i = 0; i < GROUP_RECORDS.length; i++) {
+                if (writeMaster || sCommittedGroups[i] != groupOf(gestureMask, i)) {
+                    writeGroups = true;
+                }
+            }
+        }
+        if (!writeMaster && !writeGroups) {
+            return true;
+        }
+
+        // Each record is a separate store, the node's descriptor is kept open
+        SysfsNode control = SysfsNode.get(node);
+        if (writeMaster) {
+            if (!control.writeBytes(ByteBuffer.allocate(4).putInt(master).array())) {
+                invalidate();
+                return false;
+            }
+            sCommittedMaster = master;
+        }
+        if (enabled) {
+            for (int i = 0; i < GROUP_RECORDS.length; i++) {
+                int group = groupOf(gestureMask, i);
+                if (writeMaster || sCommittedGroups[i] != group) {
+                    if (!control.writeBytes(
+                            new byte[]{(byte) group, 0, (byte) GROUP_RECORDS[i], 0})) {
+                        invalidate();
+                        return false;
+                    }
+                    sCommittedGroups[i] = group;
+                }
+            }
+        } else {
+            // Groups are rewritten in full once gestures are enabled again
+            Arrays.fill(sCommittedGroups, UNKNOWN);
+        }
+        return true;
+    }
+
+    private static int groupOf(int gestureMask, int group) {
+        return (gestureMask >> (group * 8)) & 0xff;
+    }
+
+    private static void invalidate() {
+        sCommittedMaster = UNKNOWN;
+        Arrays.fill(sCommittedGroups, UNKNOWN);
+    }
+
+    /**
+     * Combined mask of all gestures enabled in the given preferences
+     */
+    static int getGestureMask(SharedPreferences sharedPreferences) {
+        int gestureMask = 0x000000;
+        for (int i = 0; i < keysToMasks.size(); i++) {
+            int key = keysToMasks.keyAt(i);
+            int mask = keysToMasks.get(key);
+            if (sharedPreferences.getBoolean(key + "_enabled", false))
+                gestureMask += mask;
+        }
+        return gestureMask;
+    }
+
+    public static synchronized void masterSwitch(boolean enabled) {
+        int master = enabled ? GESTURES_ENABLED_MASK : GESTURES_DISABLED_MASK;
         if (enabled) {
             Log.i(TAG, "Gestures enabled");
-            FileUtils.writeAsByte(TOUCHSCREEN_GESTURE_CONTROL_NODE, GESTURES_ENABLED_MASK);
         } else {
             Log.i(TAG, "Gestures disabled");
-            FileUtils.writeAsByte(TOUCHSCREEN_GESTURE_CONTROL_NODE, GESTURES_DISABLED_MASK);
+        }
+        if (SysfsNode.get(TOUCHSCREEN_GESTURE_CONTROL_NODE)
+                .writeBytes(ByteBuffer.allocate(4).putInt(master).array())) {
+            sCommittedMaster = master;
+            // The next update has to send every group again
+            Arrays.fill(sCommittedGroups, UNKNOWN);
+        } else {
+            invalidate();
         }
     }
 }
-
-
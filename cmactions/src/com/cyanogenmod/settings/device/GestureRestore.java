@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.cyanogenmod.hardware.SysfsNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Restores the saved gesture masks after boot.
+ *
+ * Runs from the persistent process as soon as it is started, well before
+ * BOOT_COMPLETED, and again from BootCompletedReceiver. What was armed is
+ * recorded in a stamp together with the kernel's boot id: when the stamp
+ * belongs to this boot and matches what the saved configuration arms now,
+ * the driver already holds it and nothing is written. The stamp records
+ * the mask actually armed, narrower while GestureContextArmer restricts
+ * it, so a restricted driver is never taken for a fully armed one. It also
+ * keeps the time from boot to gestures being armed.
+ */
+final class GestureRestore {
+    private static final String TAG = "GestureRestore";
+
+    private static final String BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+    private static final String STAMP_FILE = "gestures_armed";
+
+    private GestureRestore() {
+    }
+
+    /**
+     * Restores on a background thread and runs done (may be null) after.
+     */
+    static void restoreAsync(final Context context, final String trigger, final Runnable done) {
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    restore(context, trigger);
+                } finally {
+                    if (done != null) {
+                        done.run();
+                    }
+                }
+            }
+        });
+    }
+
+    static synchronized void restore(Context context, String trigger) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean enabled = prefs.getBoolean(GestureController.TOUCHSCREEN_GESTURE_CONTROL_KEY,
+                false);
+        int mask = enabled ? GestureController.getGestureMask(prefs) : 0;
+        int armedMask = GestureController.getArmedMask(enabled, mask);
+        String armed = (armedMask >= 0 ? "1 " : "0 ")
+                + Integer.toHexString(Math.max(armedMask, 0));
+        String bootId = SysfsNode.get(BOOT_ID_PATH).readString();
+        AtomicFile stampFile = new AtomicFile(new File(context.getFilesDir(), STAMP_FILE));
+
+        String[] stamp = readStamp(stampFile);
+        if (bootId != null && stamp != null && bootId.equals(stamp[0])
+                && armed.equals(stamp[1] + " " + stamp[2])) {
+            GestureController.assumeCommitted(armedMask >= 0, Math.max(armedMask, 0));
+            Log.d(TAG, "Gestures already armed " + stamp[3] + " ms after boot ("
+                    + stamp[4] + "), skipping " + trigger);
+            return;
+        }
+
+        if (!GestureController.resyncGestureControl(
+                GestureController.TOUCHSCREEN_GESTURE_CONTROL_NODE, enabled, mask)) {
+            Log.w(TAG, "Unable to arm gestures (" + trigger + ")");
+            return;
+        }
+        long armedAt = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Gestures " + (enabled ? "armed" : "disarmed") + " " + armedAt
+                + " ms after boot (" + trigger + ")");
+        if (bootId != null) {
+            writeStamp(stampFile, bootId + " " + armed + " " + armedAt + " " + trigger);
+        }
+    }
+
+    /**
+     * Drops the stamp, for when the driver is given something else than the
+     * saved configuration. The next restore writes it in full.
+     */
+    static synchronized void forget(Context context) {
+        new AtomicFile(new File(context.getFilesDir(), STAMP_FILE)).delete();
+    }
+
+    /**
+     * Stamp layout, one line: boot id, armed (0/1), armed mask in hex,
+     * elapsedRealtime() when armed (ms), trigger.
+     */
+    private static String[] readStamp(AtomicFile file) {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(file.openRead(),
+                    StandardCharsets.UTF_8));
+            String line = in.readLine();
+            String[] fields = line != null ? line.split(" ") : null;
+            return fields != null && fields.length == 5 ? fields : null;
+        } catch (FileNotFoundException e) {
+            // Never armed
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable stamp", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void writeStamp(AtomicFile file, String stamp) {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            stream.write((stamp + "\n").getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write stamp", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+}
@@ -21,8 +21,6 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
@@ -62,24 +60,18 @@ public class TouchscreenGestureSettings extends Activity {
         return false;
     }
 
-    public static class GestureFragment extends PreferenceFragment implements SwitchPlusPreference.SwitchPlusClickListener {
+    public static class GestureFragment extends PreferenceFragment implements SwitchPlusPreference.SwitchPlusClickListener, AppCatalog.Listener,
+            SharedPreferences.OnSharedPreferenceChangeListener {
 
         public static final String TAG = GestureFragment.class.getSimpleName();
 
         private SharedPreferences sharedPrefs;
+        private AppCatalog appCatalog;
+        private String[] baseActionTitles;
+        private String[] baseActionValues;
         private String[] actionTitles;
         private String[] actionValues;
-        private List<String> actionTitlesList;
         private List<String> actionValuesList;
-        private static final List<String> allowedSystemApps = new ArrayList<>();
-
-        static {
-            allowedSystemApps.add("com.android.dialer");
-            allowedSystemApps.add("com.android.mms");
-            allowedSystemApps.add("com.android.settings");
-            allowedSystemApps.add("com.android.deskclock");
-            allowedSystemApps.add("com.android.calculator2");
-        }
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -87,36 +79,19 @@ public class TouchscreenGestureSettings extends Activity {
             addPreferencesFromResource(R.xml.touchscreen_panel);
             sharedPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
 
-            actionTitlesList = new ArrayList<>();
-            actionValuesList = new ArrayList<>();
-            actionTitles = this.getResources().getStringArray(R.array.gesture_action_titles);
-            actionValues = this.getResources().getStringArray(R.array.gesture_action_values);
-            actionTitlesList.addAll(Arrays.asList(actionTitles));
-            actionValuesList.addAll(Arrays.asList(actionValues));
-
-            List<ApplicationInfo> packages = getActivity().getPackageManager()
-                    .getInstalledApplications(PackageManager.GET_META_DATA);
-            for (ApplicationInfo appInfo : packages) {
-                if ((appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0 &&
-                        allowedSystemApps.indexOf(appInfo.packageName) == -1)
-                    continue;
-                actionTitlesList.add(appInfo.loadLabel(getActivity().getPackageManager()).toString());
-                actionValuesList.add("launch$" + appInfo.packageName);
-            }
-            actionTitles = actionTitlesList.toArray(new String[actionTitlesList.size()]);
-            actionValues = actionValuesList.toArray(new String[actionValuesList.size()]);
+            baseActionTitles = this.getResources().getStringArray(R.array.gesture_action_titles);
+            baseActionValues = this.getResources().getStringArray(R.array.gesture_action_values);
             for (int x = 0; x < GestureController.keysToMasks.size(); x++) {
                 int prefKey = GestureController.keysToMasks.keyAt(x);
                 SwitchPlusPreference preference = (SwitchPlusPreference) findPreference(String.valueOf(prefKey) + "_enabled");
                 preference.setSwitchClickListener(this);
-                String prefValue = sharedPrefs.getString(String.valueOf(prefKey) + "_action", "disabled");
-                int i = actionValuesList.indexOf(prefValue);
-                if (i >= 0)
-                    preference.setSummaryOn(actionTitles[i]);
-                else
-                    preference.setSummaryOn(" ");
             }
 
+            // Apps are listed as soon as the catalog has them, starting from its last cache
+            appCatalog = AppCatalog.getInstance(getActivity());
+            onCatalogChanged(appCatalog.getEntries());
+            appCatalog.addListener(this);
+
             findPreference(GestureController.TOUCHSCREEN_GESTURE_CONTROL_KEY).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
                 @Override
                 public boolean onPreferenceChange(Preference preference, Object o) {
@@ -125,6 +100,69 @@ public class TouchscreenGestureSettings extends Activity {
                     return true;
                 }
             });
+
+            findPreference(GestureContextArmer.CONTEXT_ARMING_KEY).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object o) {
+                    GestureContextArmer.getInstance(getActivity()).setEnabled((boolean) o);
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            sharedPrefs.registerOnSharedPreferenceChangeListener(this);
+            GestureContextArmer armer = GestureContextArmer.peekInstance();
+            long avoided = armer != null ? armer.getAvoidedWakeups() : -1;
+            if (avoided >= 0) {
+                findPreference(GestureContextArmer.CONTEXT_ARMING_KEY).setSummary(
+                        getString(R.string.context_arming_summary_avoided, avoided,
+                                armer.getSensorMs() / 60000, armer.getSensorEvents()));
+            }
+        }
+
+        @Override
+        public void onPause() {
+            sharedPrefs.unregisterOnSharedPreferenceChangeListener(this);
+            super.onPause();
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            // KeyHandler picks the bindings up from the published config
+            GestureConfig.publish(getActivity());
+        }
+
+        @Override
+        public void onDestroy() {
+            appCatalog.removeListener(this);
+            super.onDestroy();
+        }
+
+        @Override
+        public void onCatalogChanged(List<AppCatalog.Entry> entries) {
+            List<String> actionTitlesList = new ArrayList<>(baseActionTitles.length + entries.size());
+            actionValuesList = new ArrayList<>(baseActionValues.length + entries.size());
+            actionTitlesList.addAll(Arrays.asList(baseActionTitles));
+            actionValuesList.addAll(Arrays.asList(baseActionValues));
+            for (AppCatalog.Entry entry : entries) {
+                actionTitlesList.add(entry.label);
+                actionValuesList.add("launch$" + entry.packageName);
+            }
+            actionTitles = actionTitlesList.toArray(new String[actionTitlesList.size()]);
+            actionValues = actionValuesList.toArray(new String[actionValuesList.size()]);
+            for (int x = 0; x < GestureController.keysToMasks.size(); x++) {
+                int prefKey = GestureController.keysToMasks.keyAt(x);
+                SwitchPlusPreference preference = (SwitchPlusPreference) findPreference(String.valueOf(prefKey) + "_enabled");
+                String prefValue = sharedPrefs.getString(String.valueOf(prefKey) + "_action", "disabled");
+                int i = actionValuesList.indexOf(prefValue);
+                if (i >= 0)
+                    preference.setSummaryOn(actionTitles[i]);
+                else
+                    preference.setSummaryOn(" ");
+            }
         }
 
         @Override
@@ -138,12 +176,15 @@ public class TouchscreenGestureSettings extends Activity {
 
             String prefValue = sharedPrefs.getString(preference.getKey().replace("_enabled", "_action"), "disabled");
             int i = actionValuesList.indexOf(prefValue);
-            AlertDialog dialog = new AlertDialog.Builder(getActivity()).setSingleChoiceItems(actionTitles, i, new DialogInterface.OnClickListener() {
+            // The catalog may grow while the dialog is shown, stick to the listed items
+            final String[] titles = actionTitles;
+            final String[] values = actionValues;
+            AlertDialog dialog = new AlertDialog.Builder(getActivity()).setSingleChoiceItems(titles, i, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    preference.setSummaryOn(actionTitles[which]);
+                    preference.setSummaryOn(titles[which]);
                     sharedPrefs.edit().putString(preference.getKey().replace("_enabled", "_action"),
-                            actionValues[which]).apply();
+                            values[which]).apply();
                     dialog.dismiss();
                 }
             }).create();
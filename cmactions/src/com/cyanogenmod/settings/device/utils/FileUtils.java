@@ -16,16 +16,14 @@
 
 package com.cyanogenmod.settings.device.utils;
 
-import android.util.Log;
+import org.cyanogenmod.hardware.SysfsNode;
 
-import java.io.BufferedReader;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
+/**
+ * Path based helpers on top of the shared SysfsNode accessors
+ */
 public final class FileUtils {
-    private static final String TAG = "FileUtils";
 
     private FileUtils() {
         // this class is not supposed to be instantiated
@@ -35,25 +33,7 @@ public final class FileUtils {
      * Reads the first line of text from the given file
      */
     public static String readOneLine(String fileName) {
-        String line = null;
-        BufferedReader reader = null;
-
-        try {
-            reader = new BufferedReader(new FileReader(fileName), 512);
-            line = reader.readLine();
-        } catch (IOException e) {
-            Log.e(TAG, "Could not read from file " + fileName, e);
-        } finally {
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-            } catch (IOException e) {
-                // ignored, not much we can do anyway
-            }
-        }
-
-        return line;
+        return SysfsNode.get(fileName).readString();
     }
 
     /**
@@ -62,17 +42,7 @@ public final class FileUtils {
      * @return true on success, false on failure
      */
     public static boolean writeLine(String fileName, String value) {
-        try {
-            FileOutputStream fos = new FileOutputStream(fileName);
-            fos.write(value.getBytes());
-            fos.flush();
-            fos.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Could not write to file " + fileName, e);
-            return false;
-        }
-
-        return true;
+        return SysfsNode.get(fileName).writeString(value);
     }
 
     /**
@@ -81,17 +51,7 @@ public final class FileUtils {
      * @return true on success, false on failure
      */
     public static boolean writeAsByte(String fileName, int value) {
-        byte[] bytes = ByteBuffer.allocate(4).putInt(value).array();
-        try {
-            FileOutputStream fos = new FileOutputStream(fileName);
-            fos.write(bytes);
-            fos.flush();
-            fos.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Could not write to file " + fileName, e);
-            return false;
-        }
-        return true;
+        return writeByteArray(fileName, ByteBuffer.allocate(4).putInt(value).array());
     }
 
     /**
@@ -100,16 +60,6 @@ public final class FileUtils {
      * @return true on success, false on failure
      */
     public static boolean writeByteArray(String fileName, byte[] bytes) {
-        try {
-            FileOutputStream fos = new FileOutputStream(fileName);
-            fos.write(bytes);
-            fos.flush();
-            fos.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Could not write to file " + fileName, e);
-            return false;
-        }
-        return true;
+        return SysfsNode.get(fileName).writeBytes(bytes);
     }
 }
-
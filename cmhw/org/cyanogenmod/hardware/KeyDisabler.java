@@ -16,7 +16,11 @@
 
 package org.cyanogenmod.hardware;
 
+import android.os.SystemProperties;
 import android.util.Log;
+
+import java.io.File;
+
 /*
  * Disable capacitive keys
  *
@@ -24,35 +28,68 @@ import android.util.Log;
  * can be fully disabled for replacement with a soft navbar. You
  * really should not be using this on a device with mechanical or
  * otherwise visible-when-inactive keys
+ *
+ * The touch panel driver stops reporting the mBack touch keys while
+ * KEY_DISABLE_NODE holds 1, so they cause neither interrupts nor input
+ * events. The state is persisted in KEY_DISABLE_PROP, which init writes
+ * back into the node as soon as persistent properties are loaded.
+ *
+ * Without the node there is no way to stop the keys, so the feature is
+ * reported as unsupported rather than pretending to disable them.
  */
 
 public class KeyDisabler {
 
-    private static boolean isActive = false;
+    private static final String TAG = "KeyDisabler";
+
+    private static final String KEY_DISABLE_NODE = "/sys/devices/mx_tsp/keys_disable";
+    private static final String KEY_DISABLE_PROP = "persist.sys.keys_disabled";
+
+    private static final SysfsNode sNode = SysfsNode.get(KEY_DISABLE_NODE);
+    private static final boolean sHasNode = new File(KEY_DISABLE_NODE).exists();
+
+    // State last confirmed by the driver
+    private static Boolean sActive;
+
     /*
      * All HAF classes should export this boolean.
      * Real implementations must, of course, return true
      */
 
-    public static boolean isSupported() { return true; }
+    public static boolean isSupported() { return sHasNode; }
 
     /*
      * Are the keys currently blocked?
      */
 
-    public static boolean isActive() {
-        return isActive;
+    public static synchronized boolean isActive() {
+        if (sActive == null) {
+            sActive = sHasNode && sNode.readInt(0) == 1;
+        }
+        return sActive;
     }
 
     /*
      * Disable capacitive keys
      */
 
-    public static boolean setActive(boolean state) {
-        //throw new UnsupportedOperationException();
-        isActive = state;
-        Log.i("KeyDisabler", "setActive " + state);
-        return isActive;
+    public static synchronized boolean setActive(boolean state) {
+        if (!sHasNode) {
+            Log.w(TAG, KEY_DISABLE_NODE + " missing, can't disable the keys");
+            return false;
+        }
+        if (!sNode.writeInt(state ? 1 : 0)) {
+            Log.w(TAG, "Failed to write " + KEY_DISABLE_NODE);
+            sActive = null;
+            return false;
+        }
+        // Read back what the driver accepted instead of trusting the write
+        sActive = sNode.readInt(0) == 1;
+        if (sActive == state) {
+            SystemProperties.set(KEY_DISABLE_PROP, state ? "1" : "0");
+        }
+        Log.i(TAG, "setActive " + state + ", now " + sActive);
+        return sActive == state;
     }
 
 }
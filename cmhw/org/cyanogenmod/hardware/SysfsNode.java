@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Shared accessor for a sysfs node
+ *
+ * There is one instance per path and process, see get(). Descriptors are
+ * opened on first use and kept: a read is a positional read from offset 0
+ * into a direct buffer, a write a positional write at offset 0. A failed
+ * operation drops the descriptors and is retried once on a fresh open. If
+ * that fails too, the node backs off (100 ms, doubling up to 30 s) and
+ * fails fast until the backoff expires. Nodes read once per interrupt turn
+ * that off with setBackoff(false), a skipped read there is a lost event.
+ *
+ * The last value read or written is remembered. readCached*() return it
+ * without touching the node and write*IfChanged() skip writing the value
+ * that is already there, so only use those for nodes nobody else changes.
+ * A trailing newline, as sysfs shows on read, is ignored when comparing.
+ *
+ * Used by cmhw, CMActions and the keyhandler; the latter two compile this
+ * source in as well.
+ */
+
+public final class SysfsNode {
+
+    private static final String TAG = "SysfsNode";
+
+    private static final int BUFFER_SIZE = 128;
+    private static final long MIN_BACKOFF_NS = 100000000L;
+    private static final long MAX_BACKOFF_NS = 30000000000L;
+
+    private static final ConcurrentHashMap<String, SysfsNode> sNodes =
+            new ConcurrentHashMap<String, SysfsNode>();
+
+    private final String mPath;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // Last value read or written, mCacheLength is -1 while unknown
+    private final byte[] mCache = new byte[BUFFER_SIZE];
+    private int mCacheLength = -1;
+
+    // Digits of the int being written, no int write allocates
+    private final byte[] mIntBytes = new byte[11];
+
+    private FileInputStream mInput;
+    private FileChannel mInputChannel;
+    private FileOutputStream mOutput;
+    private FileChannel mOutputChannel;
+
+    private boolean mBackoff = true;
+    private long mBackoffNs;
+    private long mRetryAtNs;
+
+    private long mOpens;
+    private long mReads;
+    private long mCachedReads;
+    private long mWrites;
+    private long mSkippedWrites;
+    private long mFailures;
+    private long mBackoffRejects;
+
+    private SysfsNode(String path) {
+        mPath = path;
+    }
+
+    /*
+     * Returns the accessor shared by all callers in this process
+     */
+
+    public static SysfsNode get(String path) {
+        SysfsNode node = sNodes.get(path);
+        if (node == null) {
+            SysfsNode created = new SysfsNode(path);
+            node = sNodes.putIfAbsent(path, created);
+            if (node == null) {
+                node = created;
+            }
+        }
+        return node;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /*
+     * Whether failures make the node fail fast for a while, on by default
+     */
+
+    public synchronized void setBackoff(boolean enabled) {
+        mBackoff = enabled;
+    }
+
+    /*
+     * First line of the node, or null if it could not be read
+     */
+
+    public synchronized String readString() {
+        return read() < 0 ? null : cachedLine();
+    }
+
+    /*
+     * Leading decimal integer of the node, or defValue if there is none
+     */
+
+    public synchronized int readInt(int defValue) {
+        return read() < 0 ? defValue : parseInt(mCache, mCacheLength, defValue);
+    }
+
+    public synchronized String readCachedString() {
+        if (mCacheLength < 0) {
+            return readString();
+        }
+        mCachedReads++;
+        return cachedLine();
+    }
+
+    public synchronized int readCachedInt(int defValue) {
+        if (mCacheLength < 0) {
+            return readInt(defValue);
+        }
+        mCachedReads++;
+        return parseInt(mCache, mCacheLength, defValue);
+    }
+
+    public synchronized boolean writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return write(bytes, bytes.length, false);
+    }
+
+    public synchronized boolean writeStringIfChanged(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return write(bytes, bytes.length, true);
+    }
+
+    public synchronized boolean writeInt(int value) {
+        return write(mIntBytes, formatInt(value, mIntBytes), false);
+    }
+
+    public synchronized boolean writeIntIfChanged(int value) {
+        return write(mIntBytes, formatInt(value, mIntBytes), true);
+    }
+
+    public synchronized boolean writeBytes(byte[] bytes) {
+        return write(bytes, bytes.length, false);
+    }
+
+    public synchronized boolean writeBytesIfChanged(byte[] bytes) {
+        return write(bytes, bytes.length, true);
+    }
+
+    /*
+     * Forgets the remembered value, e.g. after the driver was reset
+     */
+
+    public synchronized void invalidate() {
+        mCacheLength = -1;
+    }
+
+    /*
+     * Releases the descriptors, the next access opens the node again
+     */
+
+    public synchronized void close() {
+        if (mInput != null) {
+            try {
+                mInput.close();
+            } catch (IOException ignored) {
+            }
+            mInput = null;
+            mInputChannel = null;
+        }
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException ignored) {
+            }
+            mOutput = null;
+            mOutputChannel = null;
+        }
+    }
+
+    public synchronized long getOpenCount() {
+        return mOpens;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("  path=" + mPath + " opens=" + mOpens + " reads=" + mReads
+                + " cached_reads=" + mCachedReads + " writes=" + mWrites
+                + " skipped_writes=" + mSkippedWrites + " failures=" + mFailures
+                + " backoff_rejects=" + mBackoffRejects);
+    }
+
+    public static void dumpAll(PrintWriter pw) {
+        pw.println("Sysfs nodes:");
+        for (SysfsNode node : sNodes.values()) {
+            node.dump(pw);
+        }
+    }
+
+    /*
+     * Parses a decimal integer at the start of buf, stopping at the first
+     * non-digit (usually the trailing newline)
+     */
+
+    public static int parseInt(byte[] buf, int len, int defValue) {
+        int i = 0;
+        boolean negative = false;
+        while (i < len && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        if (i < len && buf[i] == '-') {
+            negative = true;
+            i++;
+        }
+        int start = i;
+        int value = 0;
+        for (; i < len; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+        }
+        if (i == start) {
+            return defValue;
+        }
+        return negative ? -value : value;
+    }
+
+    /*
+     * Writes value in decimal to the start of buf, returns the length
+     */
+
+    private static int formatInt(int value, byte[] buf) {
+        long v = value;
+        int len = 0;
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return len;
+    }
+
+    private String cachedLine() {
+        int end = 0;
+        while (end < mCacheLength && mCache[end] != '\n') {
+            end++;
+        }
+        return new String(mCache, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private boolean backingOff() {
+        if (mBackoff && mBackoffNs != 0 && System.nanoTime() - mRetryAtNs < 0) {
+            mBackoffRejects++;
+            return true;
+        }
+        return false;
+    }
+
+    private void onSuccess() {
+        mBackoffNs = 0;
+    }
+
+    private void onFailure(String op, IOException e) {
+        mFailures++;
+        close();
+        if (mBackoffNs == 0) {
+            Log.w(TAG, "Could not " + op + " " + mPath, e);
+            mBackoffNs = MIN_BACKOFF_NS;
+        } else {
+            mBackoffNs = Math.min(mBackoffNs * 2, MAX_BACKOFF_NS);
+        }
+        mRetryAtNs = System.nanoTime() + mBackoffNs;
+    }
+
+    /*
+     * Returns the number of bytes read into mCache, or -1 on failure
+     */
+
+    private int read() {
+        if (backingOff()) {
+            return -1;
+        }
+        int len;
+        try {
+            len = readOnce();
+        } catch (IOException e) {
+            len = -1;
+        }
+        if (len <= 0) {
+            // Stale descriptor or empty read, reopen and try exactly once more
+            close();
+            try {
+                len = Math.max(readOnce(), 0);
+            } catch (IOException e) {
+                onFailure("read", e);
+                return -1;
+            }
+        }
+        mReads++;
+        onSuccess();
+        mBuffer.flip();
+        mBuffer.get(mCache, 0, len);
+        mCacheLength = len;
+        return len;
+    }
+
+    private int readOnce() throws IOException {
+        if (mInputChannel == null) {
+            mInput = new FileInputStream(mPath);
+            mInputChannel = mInput.getChannel();
+            mOpens++;
+        }
+        mBuffer.clear();
+        return mInputChannel.read(mBuffer, 0);
+    }
+
+    private boolean write(byte[] bytes, int length, boolean skipUnchanged) {
+        if (skipUnchanged && isCached(bytes, length)) {
+            mSkippedWrites++;
+            return true;
+        }
+        if (backingOff()) {
+            return false;
+        }
+        try {
+            writeOnce(bytes, length);
+        } catch (IOException first) {
+            close();
+            try {
+                writeOnce(bytes, length);
+            } catch (IOException e) {
+                onFailure("write", e);
+                mCacheLength = -1;
+                return false;
+            }
+        }
+        mWrites++;
+        onSuccess();
+        if (length <= BUFFER_SIZE) {
+            System.arraycopy(bytes, 0, mCache, 0, length);
+            mCacheLength = length;
+        } else {
+            mCacheLength = -1;
+        }
+        return true;
+    }
+
+    private void writeOnce(byte[] bytes, int length) throws IOException {
+        if (mOutputChannel == null) {
+            mOutput = new FileOutputStream(mPath);
+            mOutputChannel = mOutput.getChannel();
+            mOpens++;
+        }
+        ByteBuffer src;
+        if (length <= BUFFER_SIZE) {
+            src = mBuffer;
+            src.clear();
+            src.put(bytes, 0, length);
+            src.flip();
+        } else {
+            src = ByteBuffer.wrap(bytes, 0, length);
+        }
+        // sysfs stores take the whole buffer in one write
+        if (mOutputChannel.write(src, 0) != length) {
+            throw new IOException("Short write to " + mPath);
+        }
+    }
+
+    private boolean isCached(byte[] bytes, int length) {
+        int cached = mCacheLength;
+        if (cached == length + 1 && mCache[length] == '\n') {
+            cached = length;
+        }
+        if (cached != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mCache[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,8 +16,6 @@
 
 package org.cyanogenmod.hardware;
 
-import org.cyanogenmod.hardware.util.FileUtils;
-
 /* 
  * Vibrator intensity adjustment
  *
@@ -39,12 +37,15 @@ public class VibratorHW {
     // Keep this synced to immvibe impl
     private static final String INTENSITY_FILE = "/sys/kernel/thunderquake_engine/level";
 
+    // The vibe implementation may change the level too, so always go to the node
+    private static final SysfsNode INTENSITY_NODE = SysfsNode.get(INTENSITY_FILE);
+
     public static boolean isSupported() {
         return true;
     }
 
     public static boolean setIntensity(int intensity)  {
-        return FileUtils.writeLine(INTENSITY_FILE, Integer.toString(intensity));
+        return INTENSITY_NODE.writeInt(intensity);
     }
 
     public static int getMaxIntensity()  {
@@ -61,16 +62,7 @@ public class VibratorHW {
     }
 
     public static int getCurIntensity()  {
-        final String result = FileUtils.readOneLine(INTENSITY_FILE);
-        if (result == null) {
-            return 5;
-        }
-
-        try {
-            return Integer.parseInt(result.trim());
-        } catch (final NumberFormatException ignored) {
-            return 5;
-        }
+        return INTENSITY_NODE.readInt(getDefaultIntensity());
     }
 
     public static int getDefaultIntensity()  {
@@ -0,0 +1,13 @@
+LOCAL_PATH:= $(call my-dir)
+
+ifeq ($(TARGET_DEVICE),m2note)
+include $(CLEAR_VARS)
+
+# Minimal framework stand-ins shared by the host-side load test and
+# benchmarks, only what the code they exercise touches.
+LOCAL_MODULE := com.cyanogenmod.keyhandler-hoststubs
+LOCAL_SRC_FILES := $(call all-java-files-under,src)
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+endif
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Host stand-in, Settings keeps its values in memory and notifies the
+ * observers registered here when they are written.
+ */
+public class ContentResolver {
+    private static final CopyOnWriteArrayList<Registration> sObservers =
+            new CopyOnWriteArrayList<Registration>();
+
+    private static final class Registration {
+        final String uri;
+        final ContentObserver observer;
+
+        Registration(String uri, ContentObserver observer) {
+            this.uri = uri;
+            this.observer = observer;
+        }
+    }
+
+    public final void registerContentObserver(Uri uri, boolean notifyForDescendents,
+            ContentObserver observer) {
+        sObservers.add(new Registration(uri.toString(), observer));
+    }
+
+    public final void registerContentObserver(Uri uri, boolean notifyForDescendents,
+            ContentObserver observer, int userHandle) {
+        registerContentObserver(uri, notifyForDescendents, observer);
+    }
+
+    public final void unregisterContentObserver(ContentObserver observer) {
+        for (Registration r : sObservers) {
+            if (r.observer == observer) {
+                sObservers.remove(r);
+            }
+        }
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer) {
+        String key = uri.toString();
+        for (Registration r : sObservers) {
+            if (r.uri.equals(key)) {
+                r.observer.dispatchChange(r.observer == observer, uri);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.UserHandle;
+
+import java.io.File;
+
+/**
+ * Host stand-in, only what the keyhandler and the benchmarked cmactions
+ * code touch. Methods a harness does not override throw.
+ */
+public abstract class Context {
+    public static final String POWER_SERVICE = "power";
+    public static final String SENSOR_SERVICE = "sensor";
+    public static final String VIBRATOR_SERVICE = "vibrator";
+    public static final String KEYGUARD_SERVICE = "keyguard";
+    public static final String TORCH_SERVICE = "torch";
+    public static final String CMHW_SERVICE = "cmhw";
+
+    public static final int MODE_PRIVATE = 0;
+    public static final int MODE_MULTI_PROCESS = 4;
+    public static final int CONTEXT_RESTRICTED = 4;
+
+    public abstract String getPackageName();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public Object getSystemService(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public PackageManager getPackageManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Resources getResources() {
+        throw new UnsupportedOperationException();
+    }
+
+    public ContentResolver getContentResolver() {
+        throw new UnsupportedOperationException();
+    }
+
+    public File getFilesDir() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Context createPackageContext(String packageName, int flags)
+            throws PackageManager.NameNotFoundException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+            String broadcastPermission, Handler scheduler) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Intent registerReceiverAsUser(BroadcastReceiver receiver, UserHandle user,
+            IntentFilter filter, String broadcastPermission, Handler scheduler) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void sendBroadcastAsUser(Intent intent, UserHandle user) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void startActivityAsUser(Intent intent, android.os.Bundle options,
+            UserHandle user) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int checkCallingOrSelfPermission(String permission) {
+        throw new UnsupportedOperationException();
+    }
+}
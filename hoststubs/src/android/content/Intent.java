@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Host stand-in.
+ */
+public class Intent {
+    public static final String ACTION_PACKAGE_ADDED = "android.intent.action.PACKAGE_ADDED";
+    public static final String ACTION_PACKAGE_REMOVED = "android.intent.action.PACKAGE_REMOVED";
+    public static final String ACTION_PACKAGE_CHANGED = "android.intent.action.PACKAGE_CHANGED";
+    public static final String ACTION_PACKAGE_REPLACED = "android.intent.action.PACKAGE_REPLACED";
+    public static final String ACTION_SCREEN_ON = "android.intent.action.SCREEN_ON";
+    public static final String ACTION_SCREEN_OFF = "android.intent.action.SCREEN_OFF";
+    public static final String ACTION_USER_PRESENT = "android.intent.action.USER_PRESENT";
+
+    public static final int FLAG_ACTIVITY_SINGLE_TOP = 0x20000000;
+    public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+    public static final int FLAG_ACTIVITY_CLEAR_TOP = 0x04000000;
+
+    private final String mAction;
+    private Uri mData;
+    private int mFlags;
+    private String mPackage;
+    private ComponentName mComponent;
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public Intent(String action, Uri data) {
+        mAction = action;
+        mData = data;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Uri getData() {
+        return mData;
+    }
+
+    public Intent addFlags(int flags) {
+        mFlags |= flags;
+        return this;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public Intent setPackage(String packageName) {
+        mPackage = packageName;
+        return this;
+    }
+
+    public String getPackage() {
+        return mPackage;
+    }
+
+    public Intent setComponent(ComponentName component) {
+        mComponent = component;
+        return this;
+    }
+
+    public ComponentName getComponent() {
+        return mComponent;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+/**
+ * Host stand-in, subclassed by the harness for the values it needs.
+ */
+public class Resources {
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public int getInteger(int id) {
+        throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+    }
+
+    public boolean getBoolean(int id) {
+        throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+    }
+}
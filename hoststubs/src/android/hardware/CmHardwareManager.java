@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+/**
+ * Host stand-in, reports no CMHW features.
+ */
+public class CmHardwareManager {
+    public static final int FEATURE_VIBRATOR = 0x400;
+
+    public boolean isSupported(int feature) {
+        return false;
+    }
+
+    public int getVibratorIntensity() {
+        return 0;
+    }
+
+    public int getVibratorMinIntensity() {
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+/**
+ * Host stand-in.
+ */
+public class Sensor {
+    public static final int TYPE_PROXIMITY = 8;
+
+    private final int mType;
+    private final float mMaxRange;
+
+    public Sensor(int type, float maxRange) {
+        mType = type;
+        mMaxRange = maxRange;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public float getMaximumRange() {
+        return mMaxRange;
+    }
+}
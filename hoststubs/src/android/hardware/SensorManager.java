@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+import android.os.Handler;
+
+/**
+ * Host stand-in, implemented by the load test harness.
+ */
+public abstract class SensorManager {
+    public static final int SENSOR_DELAY_FASTEST = 0;
+    public static final int SENSOR_DELAY_NORMAL = 3;
+
+    public abstract Sensor getDefaultSensor(int type);
+
+    public abstract boolean registerListener(SensorEventListener listener, Sensor sensor,
+            int rate, Handler handler);
+
+    public abstract void unregisterListener(SensorEventListener listener);
+}
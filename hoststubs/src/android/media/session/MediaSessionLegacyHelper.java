@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.session;
+
+import android.content.Context;
+import android.view.KeyEvent;
+
+/**
+ * Host stand-in. The harness installs its own helper with setHelper().
+ */
+public class MediaSessionLegacyHelper {
+    private static volatile MediaSessionLegacyHelper sHelper;
+
+    public static MediaSessionLegacyHelper getHelper(Context context) {
+        return sHelper;
+    }
+
+    /**
+     * Host only.
+     */
+    public static void setHelper(MediaSessionLegacyHelper helper) {
+        sHelper = helper;
+    }
+
+    public void sendMediaButtonEvent(KeyEvent keyEvent, boolean needWakeLock) {
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+/**
+ * Host stand-in for opaque "scheme:part" URIs.
+ */
+public final class Uri {
+    private final String mScheme;
+    private final String mSchemeSpecificPart;
+
+    private Uri(String scheme, String ssp) {
+        mScheme = scheme;
+        mSchemeSpecificPart = ssp;
+    }
+
+    public static Uri fromParts(String scheme, String ssp, String fragment) {
+        return new Uri(scheme, ssp);
+    }
+
+    public String getScheme() {
+        return mScheme;
+    }
+
+    public String getSchemeSpecificPart() {
+        return mSchemeSpecificPart;
+    }
+
+    @Override
+    public String toString() {
+        return mScheme + ":" + mSchemeSpecificPart;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+
+/**
+ * Host stand-in, only the dump path.
+ */
+public class Binder implements IBinder {
+    public static final int getCallingPid() {
+        return 0;
+    }
+
+    public static final int getCallingUid() {
+        return 0;
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, String[] args) {
+        PrintWriter pw = new PrintWriter(new FileOutputStream(fd));
+        try {
+            dump(fd, pw, args);
+        } finally {
+            pw.flush();
+        }
+    }
+
+    protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+    }
+}
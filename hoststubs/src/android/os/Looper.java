@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in: a linked message queue ordered by due time, then by
+ * arrival. Messages posted at the front of the queue are due at time 0.
+ * Like the platform queue it doesn't allocate once the Message pool is warm.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+    private final Thread mThread;
+    private Message mHead;
+    private boolean mQuitting;
+    private boolean mQuitSafely;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called");
+        }
+        Message msg;
+        while ((msg = me.next()) != null) {
+            msg.target.dispatchMessage(msg);
+            msg.recycle();
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public synchronized void quit() {
+        mQuitting = true;
+        notifyAll();
+    }
+
+    public synchronized void quitSafely() {
+        mQuitSafely = true;
+        notifyAll();
+    }
+
+    private synchronized Message next() {
+        while (true) {
+            if (mQuitting) {
+                return null;
+            }
+            long now = SystemClock.uptimeMillis();
+            Message head = mHead;
+            if (head != null && head.when <= now) {
+                mHead = head.next;
+                head.next = null;
+                return head;
+            }
+            if (mQuitSafely) {
+                return null;
+            }
+            try {
+                if (head == null) {
+                    wait();
+                } else {
+                    wait(head.when - now);
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    synchronized boolean enqueue(Message msg, long when) {
+        if (mQuitting || mQuitSafely) {
+            msg.recycle();
+            return false;
+        }
+        msg.when = when;
+        Message prev = null;
+        Message p = mHead;
+        while (p != null && p.when <= when) {
+            prev = p;
+            p = p.next;
+        }
+        msg.next = p;
+        if (prev == null) {
+            mHead = msg;
+        } else {
+            prev.next = msg;
+        }
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler h, int what, Runnable r) {
+        Message prev = null;
+        Message p = mHead;
+        while (p != null) {
+            Message next = p.next;
+            boolean match = r != null ? p.callback == r : p.callback == null && p.what == what;
+            if (p.target == h && match) {
+                if (prev == null) {
+                    mHead = next;
+                } else {
+                    prev.next = next;
+                }
+                p.next = null;
+                p.recycle();
+            } else {
+                prev = p;
+            }
+            p = next;
+        }
+    }
+
+    synchronized boolean has(Handler h, int what) {
+        for (Message p = mHead; p != null; p = p.next) {
+            if (p.target == h && p.callback == null && p.what == what) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in, see Looper. Messages are pooled as on the device, so the
+ * harness doesn't count allocations the platform wouldn't make.
+ */
+public final class Message {
+    private static final int MAX_POOL_SIZE = 50;
+    private static final Object sPoolSync = new Object();
+    private static Message sPool;
+    private static int sPoolSize;
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    Handler target;
+    Runnable callback;
+    long when;
+    Message next;
+
+    public static Message obtain() {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                Message m = sPool;
+                sPool = m.next;
+                m.next = null;
+                sPoolSize--;
+                return m;
+            }
+        }
+        return new Message();
+    }
+
+    public void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        target = null;
+        callback = null;
+        when = 0;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public long getWhen() {
+        return when;
+    }
+}
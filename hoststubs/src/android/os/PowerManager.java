@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in, subclassed by the harness to add latency and counting.
+ */
+public class PowerManager {
+    public static final int PARTIAL_WAKE_LOCK = 0x00000001;
+
+    public WakeLock newWakeLock(int levelAndFlags, String tag) {
+        return new WakeLock(tag);
+    }
+
+    public boolean isInteractive() {
+        return false;
+    }
+
+    public void wakeUp(long time) {
+    }
+
+    public void wakeUpWithProximityCheck(long time) {
+        wakeUp(time);
+    }
+
+    public static class WakeLock {
+        private final String mTag;
+        private boolean mRefCounted = true;
+        private int mCount;
+        private long mTimeoutAt;
+
+        public WakeLock(String tag) {
+            mTag = tag;
+        }
+
+        public synchronized void setReferenceCounted(boolean value) {
+            mRefCounted = value;
+        }
+
+        public synchronized void acquire() {
+            mTimeoutAt = 0;
+            mCount = mRefCounted ? mCount + 1 : 1;
+        }
+
+        public synchronized void acquire(long timeout) {
+            acquire();
+            mTimeoutAt = SystemClock.uptimeMillis() + timeout;
+        }
+
+        public synchronized void release() {
+            mCount = mRefCounted ? Math.max(mCount - 1, 0) : 0;
+        }
+
+        public synchronized boolean isHeld() {
+            if (mTimeoutAt != 0 && SystemClock.uptimeMillis() >= mTimeoutAt) {
+                mCount = 0;
+            }
+            return mCount > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "WakeLock{" + mTag + " held=" + isHeld() + "}";
+        }
+    }
+}
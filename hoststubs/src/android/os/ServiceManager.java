@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host stand-in, a map of in-process binders.
+ */
+public final class ServiceManager {
+    private static final ConcurrentHashMap<String, IBinder> sServices =
+            new ConcurrentHashMap<String, IBinder>();
+
+    public static void addService(String name, IBinder service) {
+        sServices.put(name, service);
+    }
+
+    public static IBinder getService(String name) {
+        return sServices.get(name);
+    }
+}
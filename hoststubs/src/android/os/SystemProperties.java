@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in backed by Java system properties.
+ */
+public class SystemProperties {
+    public static String get(String key, String def) {
+        return System.getProperty(key, def);
+    }
+
+    public static int getInt(String key, int def) {
+        return Integer.getInteger(key, def);
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = System.getProperty(key);
+        return value == null || value.isEmpty() ? def
+                : "1".equals(value) || "true".equals(value) || "y".equals(value);
+    }
+
+    public static void set(String key, String val) {
+        System.setProperty(key, val);
+    }
+}
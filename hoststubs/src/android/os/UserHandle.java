@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in.
+ */
+public final class UserHandle {
+    public static final int USER_ALL = -1;
+    public static final int USER_CURRENT = -2;
+
+    public static final UserHandle ALL = new UserHandle(USER_ALL);
+    public static final UserHandle CURRENT = new UserHandle(USER_CURRENT);
+
+    private final int mHandle;
+
+    public UserHandle(int h) {
+        mHandle = h;
+    }
+
+    public int getIdentifier() {
+        return mHandle;
+    }
+}
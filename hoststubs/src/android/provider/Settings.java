@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Host stand-in, values live in memory. Writes take sWriteLatencyNs to
+ * stand in for the settings provider round trip and notify the observers
+ * of the setting's URI.
+ */
+public final class Settings {
+    /**
+     * Host only.
+     */
+    public static volatile long sWriteLatencyNs;
+
+    private static final ConcurrentHashMap<String, Integer> sValues =
+            new ConcurrentHashMap<String, Integer>();
+
+    private static int getInt(String table, String name, int def) {
+        Integer value = sValues.get(table + "/" + name);
+        return value != null ? value : def;
+    }
+
+    private static boolean putInt(ContentResolver cr, String table, String name, int value) {
+        if (sWriteLatencyNs > 0) {
+            LockSupport.parkNanos(sWriteLatencyNs);
+        }
+        sValues.put(table + "/" + name, value);
+        if (cr != null) {
+            cr.notifyChange(getUriFor(table, name), null);
+        }
+        return true;
+    }
+
+    private static Uri getUriFor(String table, String name) {
+        return Uri.fromParts("content", "//settings/" + table + "/" + name, null);
+    }
+
+    public static final class System {
+        public static final String PROXIMITY_ON_WAKE = "proximity_on_wake";
+
+        public static int getInt(ContentResolver cr, String name, int def) {
+            return Settings.getInt("system", name, def);
+        }
+
+        public static boolean putInt(ContentResolver cr, String name, int value) {
+            return Settings.putInt(cr, "system", name, value);
+        }
+
+        public static Uri getUriFor(String name) {
+            return Settings.getUriFor("system", name);
+        }
+    }
+
+    public static final class Global {
+        public static final String ZEN_MODE = "zen_mode";
+        public static final int ZEN_MODE_OFF = 0;
+        public static final int ZEN_MODE_IMPORTANT_INTERRUPTIONS = 1;
+        public static final int ZEN_MODE_NO_INTERRUPTIONS = 2;
+
+        public static int getInt(ContentResolver cr, String name, int def) {
+            return Settings.getInt("global", name, def);
+        }
+
+        public static boolean putInt(ContentResolver cr, String name, int value) {
+            return Settings.putInt(cr, "global", name, value);
+        }
+
+        public static Uri getUriFor(String name) {
+            return Settings.getUriFor("global", name);
+        }
+    }
+}
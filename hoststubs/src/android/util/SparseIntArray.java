@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * Host stand-in with the same sorted-array layout as the framework class.
+ */
+public class SparseIntArray {
+    private int[] mKeys = new int[0];
+    private int[] mValues = new int[0];
+
+    public int get(int key) {
+        return get(key, 0);
+    }
+
+    public int get(int key, int valueIfKeyNotFound) {
+        int i = Arrays.binarySearch(mKeys, key);
+        return i < 0 ? valueIfKeyNotFound : mValues[i];
+    }
+
+    public void put(int key, int value) {
+        int i = Arrays.binarySearch(mKeys, key);
+        if (i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        int[] keys = new int[mKeys.length + 1];
+        int[] values = new int[mValues.length + 1];
+        System.arraycopy(mKeys, 0, keys, 0, i);
+        System.arraycopy(mValues, 0, values, 0, i);
+        keys[i] = key;
+        values[i] = value;
+        System.arraycopy(mKeys, i, keys, i + 1, mKeys.length - i);
+        System.arraycopy(mValues, i, values, i + 1, mValues.length - i);
+        mKeys = keys;
+        mValues = values;
+    }
+
+    public int size() {
+        return mKeys.length;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    public int valueAt(int index) {
+        return mValues[index];
+    }
+}
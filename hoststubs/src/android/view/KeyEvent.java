@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+/**
+ * Host stand-in.
+ */
+public class KeyEvent {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+
+    public static final int KEYCODE_UNKNOWN = 0;
+    public static final int KEYCODE_HOME = 3;
+    public static final int KEYCODE_BACK = 4;
+    public static final int KEYCODE_MEDIA_PLAY_PAUSE = 85;
+    public static final int KEYCODE_MEDIA_NEXT = 87;
+    public static final int KEYCODE_MEDIA_PREVIOUS = 88;
+
+    private final long mDownTime;
+    private final long mEventTime;
+    private final int mAction;
+    private final int mKeyCode;
+    private final int mRepeatCount;
+    private final int mScanCode;
+
+    public KeyEvent(long downTime, long eventTime, int action, int code, int repeat) {
+        this(downTime, eventTime, action, code, repeat, 0, 0, 0);
+    }
+
+    public KeyEvent(long downTime, long eventTime, int action, int code, int repeat,
+            int metaState, int deviceId, int scancode) {
+        mDownTime = downTime;
+        mEventTime = eventTime;
+        mAction = action;
+        mKeyCode = code;
+        mRepeatCount = repeat;
+        mScanCode = scancode;
+    }
+
+    public static KeyEvent changeAction(KeyEvent event, int action) {
+        return new KeyEvent(event.mDownTime, event.mEventTime, action, event.mKeyCode,
+                event.mRepeatCount, 0, 0, event.mScanCode);
+    }
+
+    public final int getAction() {
+        return mAction;
+    }
+
+    public final int getKeyCode() {
+        return mKeyCode;
+    }
+
+    public final int getScanCode() {
+        return mScanCode;
+    }
+
+    public final long getDownTime() {
+        return mDownTime;
+    }
+
+    public final long getEventTime() {
+        return mEventTime;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal;
+
+/**
+ * Host stand-in, the ids the keyhandler reads.
+ */
+public final class R {
+    public static final class bool {
+        public static final int config_proximityCheckOnWake = 0x01120001;
+        public static final int config_proximityCheckOnWakeEnabledByDefault = 0x01120002;
+    }
+
+    public static final class integer {
+        public static final int config_proximityCheckTimeout = 0x010e0001;
+    }
+}
@@ -4,7 +4,8 @@ ifeq ($(TARGET_DEVICE),m2note)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE := com.cyanogenmod.keyhandler
-LOCAL_SRC_FILES := $(call all-java-files-under,src)
+LOCAL_SRC_FILES := $(call all-java-files-under,src) \
+    ../cmhw/org/cyanogenmod/hardware/SysfsNode.java
 LOCAL_MODULE_TAGS := optional
 LOCAL_DEX_PREOPT := false
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+/**
+ * Gesture actions as stored by CMActions ("<code>_action" preferences),
+ * mapped to small integers so they can index fixed-size tables.
+ */
+final class GestureActions {
+
+    static final String LAUNCH_PREFIX = "launch$";
+
+    static final int NONE = 0;
+    static final int WAKE_UP = 1;
+    static final int UNLOCK = 2;
+    static final int CAMERA = 3;
+    static final int PLAY = 4;
+    static final int FLASHLIGHT = 5;
+    static final int PREV = 6;
+    static final int NEXT = 7;
+    static final int DO_NOT_DISTURB = 8;
+    static final int NORMAL = 9;
+    static final int MUTE = 10;
+    static final int LAUNCH = 11;
+
+    static final int COUNT = 12;
+
+    private static final String[] NAMES = {
+        "disabled", "wakeUp", "unlock", "camera", "play", "flashlight",
+        "prev", "next", "doNotDisturb", "normal", "mute", "launch"
+    };
+
+    // Gesture codes reported by the driver fit in a byte, so the
+    // "<code>_action" preference keys are built once instead of per event.
+    private static final String[] PREF_KEYS = new String[256];
+
+    static {
+        for (int i = 0; i < PREF_KEYS.length; i++) {
+            PREF_KEYS[i] = i + "_action";
+        }
+    }
+
+    private GestureActions() {
+        // this class is not supposed to be instantiated
+    }
+
+    static String getPrefKey(int gesture) {
+        if (gesture >= 0 && gesture < PREF_KEYS.length) {
+            return PREF_KEYS[gesture];
+        }
+        return gesture + "_action";
+    }
+
+    static int fromPref(String prefValue) {
+        if (prefValue == null) {
+            return NONE;
+        }
+        switch (prefValue) {
+            case "wakeUp":
+                return WAKE_UP;
+            case "unlock":
+                return UNLOCK;
+            case "camera":
+                return CAMERA;
+            case "play":
+                return PLAY;
+            case "flashlight":
+                return FLASHLIGHT;
+            case "prev":
+                return PREV;
+            case "next":
+                return NEXT;
+            case "doNotDisturb":
+                return DO_NOT_DISTURB;
+            case "normal":
+                return NORMAL;
+            case "mute":
+                return MUTE;
+            default:
+                return prefValue.startsWith(LAUNCH_PREFIX) ? LAUNCH : NONE;
+        }
+    }
+
+    static String getName(int action) {
+        return action >= 0 && action < COUNT ? NAMES[action] : NAMES[NONE];
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Gesture bindings and the haptic feedback setting, published by CMActions
+ * into a small memory-mapped file that KeyHandler reads without parsing the
+ * preferences XML.
+ *
+ * Layout (little endian):
+ *   0    magic
+ *   4    layout version
+ *   8    sequence, bumped by each write
+ *   12   flags
+ *   16   256 records of 4 bytes, indexed by gesture code:
+ *        action, package name length, package name offset (short)
+ *   1040 package name pool, UTF-8
+ *
+ * The file is rewritten in place so an existing mapping sees updates at
+ * once. CMActions writes under an exclusive file lock and bumps the
+ * sequence. A reader that finds the sequence unchanged keeps its copy
+ * without locking; otherwise it copies the records under a shared lock,
+ * which orders the mapped accesses against the other process.
+ *
+ * This source is shared with CMActions, which only uses publish().
+ */
+final class GestureConfig {
+
+    private static final String TAG = "GestureConfig";
+
+    static final String FILE_NAME = "gesture_config";
+
+    private static final String HAPTIC_FEEDBACK_KEY = "touchscreen_gesture_haptic_feedback";
+    private static final String ACTION_KEY_SUFFIX = "_action";
+
+    private static final int MAGIC = 0x47434647; // "GCFG"
+    private static final int LAYOUT_VERSION = 1;
+    private static final int FILE_SIZE = 8192;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_SEQ = 8;
+    private static final int OFFSET_FLAGS = 12;
+    private static final int OFFSET_RECORDS = 16;
+    private static final int RECORD_SIZE = 4;
+    private static final int CODE_COUNT = 256;
+    private static final int OFFSET_POOL = OFFSET_RECORDS + CODE_COUNT * RECORD_SIZE;
+
+    private static final int FLAG_HAPTIC_FEEDBACK = 1;
+
+    // Shared lock attempts while CMActions is writing before giving up
+    private static final int MAX_READ_ATTEMPTS = 8;
+    // How often a missing or invalid file is looked for again
+    private static final long REOPEN_INTERVAL_NS = 5000000000L;
+
+    private final File mFile;
+    // Kept open for the shared lock
+    private RandomAccessFile mLockFile;
+    private MappedByteBuffer mBuffer;
+    private long mNextOpenNs;
+
+    // Last consistent snapshot, valid once mSeq is set
+    private int mSeq = -1;
+    private boolean mHapticFeedback;
+    private final byte[] mActions = new byte[CODE_COUNT];
+    private final String[] mPackages = new String[CODE_COUNT];
+
+    private final byte[] mNameBuffer = new byte[255];
+
+    GestureConfig(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Brings the snapshot up to date. Costs a single read of the mapped
+     * sequence number while nothing changed.
+     *
+     * @return false if no valid config has been published yet
+     */
+    synchronized boolean refresh() {
+        if (mBuffer == null && !open()) {
+            return false;
+        }
+        final MappedByteBuffer b = mBuffer;
+        // A stale value only means the copy below is taken
+        if (b.getInt(OFFSET_SEQ) == mSeq) {
+            return true;
+        }
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            FileLock lock = tryLockShared();
+            if (lock == null) {
+                Thread.yield();
+                continue;
+            }
+            try {
+                int seq = b.getInt(OFFSET_SEQ);
+                if (b.getInt(OFFSET_MAGIC) != MAGIC
+                        || b.getInt(OFFSET_VERSION) != LAYOUT_VERSION) {
+                    return mSeq != -1;
+                }
+                if (seq != mSeq) {
+                    copy(b, seq);
+                }
+                return true;
+            } finally {
+                releaseQuietly(lock);
+            }
+        }
+        // Keep using the previous snapshot while a write is in progress
+        return mSeq != -1;
+    }
+
+    // Called with the shared lock held
+    private void copy(MappedByteBuffer b, int seq) {
+        for (int code = 0; code < CODE_COUNT; code++) {
+            int record = OFFSET_RECORDS + code * RECORD_SIZE;
+            int action = b.get(record);
+            mActions[code] = (byte) action;
+            mPackages[code] = action == GestureActions.LAUNCH
+                    ? readName(b, b.getShort(record + 2) & 0xffff, b.get(record + 1) & 0xff)
+                    : null;
+        }
+        mHapticFeedback = (b.getInt(OFFSET_FLAGS) & FLAG_HAPTIC_FEEDBACK) != 0;
+        mSeq = seq;
+    }
+
+    private FileLock tryLockShared() {
+        try {
+            return mLockFile.getChannel().tryLock(0, Long.MAX_VALUE, true);
+        } catch (OverlappingFileLockException e) {
+            // Writer in this process, as in the host tests
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to lock " + mFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Only meaningful after refresh() returned true.
+     */
+    synchronized int getAction(int gesture) {
+        if (gesture < 0 || gesture >= CODE_COUNT) {
+            return GestureActions.NONE;
+        }
+        int action = mActions[gesture];
+        return action > 0 && action < GestureActions.COUNT ? action : GestureActions.NONE;
+    }
+
+    /**
+     * @return the package bound to a launch gesture, or null
+     */
+    synchronized String getLaunchPackage(int gesture) {
+        return gesture >= 0 && gesture < CODE_COUNT ? mPackages[gesture] : null;
+    }
+
+    synchronized boolean isHapticFeedbackEnabled() {
+        return mHapticFeedback;
+    }
+
+    private String readName(MappedByteBuffer b, int offset, int length) {
+        if (length == 0 || offset < OFFSET_POOL || offset + length > FILE_SIZE) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            mNameBuffer[i] = b.get(offset + i);
+        }
+        return new String(mNameBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean open() {
+        long now = System.nanoTime();
+        if (now - mNextOpenNs < 0) {
+            return false;
+        }
+        mNextOpenNs = now + REOPEN_INTERVAL_NS;
+        if (!mFile.exists() || mFile.length() < FILE_SIZE) {
+            return false;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            mLockFile = file;
+            file = null;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + mFile, e);
+            return false;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Publishes the current preferences of the given context. The write
+     * happens on a background thread.
+     */
+    static void publish(Context context) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, prefs);
+            }
+        });
+    }
+
+    private static synchronized void write(File target, SharedPreferences prefs) {
+        RandomAccessFile file = null;
+        FileLock lock = null;
+        try {
+            file = new RandomAccessFile(target, "rw");
+            // Readers copy under the shared lock
+            lock = file.getChannel().lock();
+            if (file.length() < FILE_SIZE) {
+                file.setLength(FILE_SIZE);
+            }
+            MappedByteBuffer b = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            b.order(ByteOrder.LITTLE_ENDIAN);
+
+            int flags = prefs.getBoolean(HAPTIC_FEEDBACK_KEY, false) ? FLAG_HAPTIC_FEEDBACK : 0;
+            b.putInt(OFFSET_FLAGS, flags);
+            for (int code = 0; code < CODE_COUNT; code++) {
+                b.putInt(OFFSET_RECORDS + code * RECORD_SIZE, 0);
+            }
+            int pool = OFFSET_POOL;
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                String key = entry.getKey();
+                if (!key.endsWith(ACTION_KEY_SUFFIX) || !(entry.getValue() instanceof String)) {
+                    continue;
+                }
+                int code;
+                try {
+                    code = Integer.parseInt(key.substring(0, key.length()
+                            - ACTION_KEY_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (code < 0 || code >= CODE_COUNT) {
+                    continue;
+                }
+                String value = (String) entry.getValue();
+                int action = GestureActions.fromPref(value);
+                int record = OFFSET_RECORDS + code * RECORD_SIZE;
+                if (action == GestureActions.LAUNCH) {
+                    byte[] name = value.substring(GestureActions.LAUNCH_PREFIX.length())
+                            .getBytes(StandardCharsets.UTF_8);
+                    if (name.length == 0 || name.length > 255 || pool + name.length > FILE_SIZE) {
+                        Log.w(TAG, "Skipping launch binding of gesture " + code);
+                        continue;
+                    }
+                    b.position(pool);
+                    b.put(name);
+                    b.put(record + 1, (byte) name.length);
+                    b.putShort(record + 2, (short) pool);
+                    pool += name.length;
+                }
+                b.put(record, (byte) action);
+            }
+            b.putInt(OFFSET_MAGIC, MAGIC);
+            b.putInt(OFFSET_VERSION, LAYOUT_VERSION);
+            b.putInt(OFFSET_SEQ, b.getInt(OFFSET_SEQ) + 1);
+            b.force();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to publish gesture config", e);
+        } finally {
+            releaseQuietly(lock);
+            closeQuietly(file);
+        }
+    }
+
+    private static void releaseQuietly(FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
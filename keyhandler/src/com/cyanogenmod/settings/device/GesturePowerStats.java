@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.settings.device;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What gesture handling costs in battery: wakelock and sensor time and the
+ * gestures that were paid for without running, per gesture code and per
+ * action.
+ *
+ * Counters are plain atomics, recording never locks. snapshot() copies
+ * them; takeSnapshot() swaps each one for zero, so nothing recorded in
+ * between is lost and consecutive windows add up to the total.
+ */
+final class GesturePowerStats {
+
+    static final int GESTURE_WAKELOCK_NS = 0;
+    static final int PROXIMITY_WAKELOCK_NS = 1;
+    static final int SENSOR_NS = 2;      // proximity sensor registered
+    static final int REJECTED = 3;       // proximity sensor covered
+    static final int TIMED_OUT = 4;      // no proximity reading in time
+    static final int DROPPED = 5;        // requests pending, queue full
+    static final int COALESCED = 6;      // identical request pending
+    static final int COUNTER_COUNT = 7;
+
+    private static final String[] COUNTER_NAMES = {
+        "gesture_wakelock_ms", "proximity_wakelock_ms", "sensor_ms",
+        "rejected", "timed_out", "dropped", "coalesced"
+    };
+
+    // Times are kept in ns and shown in ms
+    private static final boolean[] COUNTER_IS_TIME = {
+        true, true, true, false, false, false, false
+    };
+
+    private static final int[] GESTURE_CODES = KeyHandler.GESTURE_CODES;
+    private static final int SLOT_COUNT = GESTURE_CODES.length + 1;
+
+    private final AtomicLongArray mByGesture = new AtomicLongArray(SLOT_COUNT * COUNTER_COUNT);
+    private final AtomicLongArray mByAction =
+            new AtomicLongArray(GestureActions.COUNT * COUNTER_COUNT);
+    // Start of the current window, elapsedRealtime() so suspend counts
+    private final AtomicLong mSinceMs = new AtomicLong(SystemClock.elapsedRealtime());
+
+    /**
+     * Counters at one point in time, and the window they cover.
+     */
+    static final class Snapshot {
+        final long windowMs;
+        final long[] byGesture = new long[SLOT_COUNT * COUNTER_COUNT];
+        final long[] byAction = new long[GestureActions.COUNT * COUNTER_COUNT];
+
+        private Snapshot(long windowMs) {
+            this.windowMs = windowMs;
+        }
+
+        long getTotal(int counter) {
+            long total = 0;
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                total += byGesture[slot * COUNTER_COUNT + counter];
+            }
+            return total;
+        }
+
+        /**
+         * One line per gesture and action with anything recorded, in
+         * key=value form so builds can be diffed.
+         */
+        void dump(PrintWriter pw) {
+            pw.println("Gesture power (window " + windowMs + " ms):");
+            StringBuilder sb = new StringBuilder(" ");
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                appendCounter(sb, counter, getTotal(counter));
+            }
+            pw.println(sb);
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                dumpRow(pw, "gesture=" + (slot == SLOT_COUNT - 1
+                        ? "other" : String.valueOf(GESTURE_CODES[slot])), byGesture, slot);
+            }
+            for (int action = 0; action < GestureActions.COUNT; action++) {
+                dumpRow(pw, "action=" + GestureActions.getName(action), byAction, action);
+            }
+        }
+
+        private static void dumpRow(PrintWriter pw, String label, long[] values, int row) {
+            StringBuilder sb = new StringBuilder("  ").append(label);
+            boolean any = false;
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                long value = values[row * COUNTER_COUNT + counter];
+                any |= value != 0;
+                appendCounter(sb, counter, value);
+            }
+            if (any) {
+                pw.println(sb);
+            }
+        }
+
+        private static void appendCounter(StringBuilder sb, int counter, long value) {
+            sb.append(' ').append(COUNTER_NAMES[counter]).append('=')
+                    .append(COUNTER_IS_TIME[counter] ? value / 1000000L : value);
+        }
+    }
+
+    /**
+     * @param action GestureActions value, or -1 if not known yet
+     */
+    void add(int gesture, int action, int counter, long value) {
+        mByGesture.addAndGet(GestureStats.getSlot(gesture) * COUNTER_COUNT + counter, value);
+        if (action >= 0 && action < GestureActions.COUNT) {
+            mByAction.addAndGet(action * COUNTER_COUNT + counter, value);
+        }
+    }
+
+    void increment(int gesture, int action, int counter) {
+        add(gesture, action, counter, 1);
+    }
+
+    Snapshot snapshot() {
+        Snapshot s = new Snapshot(SystemClock.elapsedRealtime() - mSinceMs.get());
+        for (int i = 0; i < s.byGesture.length; i++) {
+            s.byGesture[i] = mByGesture.get(i);
+        }
+        for (int i = 0; i < s.byAction.length; i++) {
+            s.byAction[i] = mByAction.get(i);
+        }
+        return s;
+    }
+
+    /**
+     * Returns the counters and starts a new window.
+     */
+    Snapshot takeSnapshot() {
+        long now = SystemClock.elapsedRealtime();
+        Snapshot s = new Snapshot(now - mSinceMs.getAndSet(now));
+        for (int i = 0; i < s.byGesture.length; i++) {
+            s.byGesture[i] = mByGesture.getAndSet(i, 0);
+        }
+        for (int i = 0; i < s.byAction.length; i++) {
+            s.byAction[i] = mByAction.getAndSet(i, 0);
+        }
+        return s;
+    }
+
+    void reset() {
+        takeSnapshot();
+    }
+}
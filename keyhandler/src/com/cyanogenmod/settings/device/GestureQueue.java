@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity, lock-free gesture queue between the input thread (single
+ * producer) and the action executor (single consumer).
+ *
+ * What happens to bursts depends on the policy:
+ * DROP_NEWEST drops incoming gestures while the queue is full;
+ * REPLACE_PENDING only ever executes the newest queued gesture, older ones
+ * still waiting are dropped when the consumer polls, and a full queue drops
+ * its oldest entry to make room;
+ * COALESCE_IDENTICAL additionally drops a gesture identical to the most
+ * recently queued one that has not been executed yet.
+ *
+ * Queued gestures that end up dropped are handed to the DropListener on the
+ * thread that dropped them; offer() reports the incoming ones itself.
+ */
+final class GestureQueue {
+
+    static final int POLICY_DROP_NEWEST = 0;
+    static final int POLICY_REPLACE_PENDING = 1;
+    static final int POLICY_COALESCE_IDENTICAL = 2;
+
+    private static final String[] POLICY_NAMES = {
+        "drop_newest", "replace_pending", "coalesce_identical"
+    };
+
+    // offer() results
+    static final int OFFER_QUEUED = 0;
+    static final int OFFER_COALESCED = 1;
+    static final int OFFER_DROPPED = 2;
+
+    interface DropListener {
+        /**
+         * Called on the producer or the consumer thread, must not block.
+         */
+        void onGestureDropped(int gesture, long eventTimeNs);
+    }
+
+    /**
+     * Consumer-owned holder filled in by poll()
+     */
+    static final class Entry {
+        int gesture;
+        long eventTimeNs;
+        boolean proximity;
+    }
+
+    private final int mPolicy;
+    private final int mMask;
+    private final int[] mGestures;
+    private final long[] mEventTimes;
+    private final boolean[] mProximity;
+
+    private final DropListener mDropListener;
+
+    // Copies of the entries poll() skips, reported once the skip is committed
+    private final int[] mSkippedGestures;
+    private final long[] mSkippedEventTimes;
+
+    // mTail is only advanced by the producer. mHead is only advanced by the
+    // consumer, except under REPLACE_PENDING where a full producer moves it
+    // past the oldest entry; both sides then compare-and-set it.
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    private final AtomicLong mEnqueued = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    GestureQueue(int capacity, int policy, DropListener dropListener) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mPolicy = policy;
+        mDropListener = dropListener;
+        mMask = size - 1;
+        mGestures = new int[size];
+        mEventTimes = new long[size];
+        mProximity = new boolean[size];
+        mSkippedGestures = new int[size];
+        mSkippedEventTimes = new long[size];
+    }
+
+    static int parsePolicy(String name, int defaultPolicy) {
+        for (int i = 0; i < POLICY_NAMES.length; i++) {
+            if (POLICY_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return defaultPolicy;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return OFFER_QUEUED, or why the gesture was not queued
+     */
+    int offer(int gesture, long eventTimeNs, boolean proximity) {
+        long tail = mTail.get();
+        long head = mHead.get();
+        if (mPolicy == POLICY_COALESCE_IDENTICAL && tail > head
+                && mGestures[(int) (tail - 1) & mMask] == gesture) {
+            mCoalesced.incrementAndGet();
+            return OFFER_COALESCED;
+        }
+        if (tail - head > mMask) {
+            if (mPolicy != POLICY_REPLACE_PENDING) {
+                mDropped.incrementAndGet();
+                return OFFER_DROPPED;
+            }
+            // Only the producer writes slots, so the oldest one is stable
+            // until the consumer moves past it
+            int oldest = (int) head & mMask;
+            int oldestGesture = mGestures[oldest];
+            long oldestEventTimeNs = mEventTimes[oldest];
+            if (mHead.compareAndSet(head, head + 1)) {
+                mDropped.incrementAndGet();
+                mDropListener.onGestureDropped(oldestGesture, oldestEventTimeNs);
+            }
+            // else the consumer polled and made room
+        }
+        int index = (int) tail & mMask;
+        mGestures[index] = gesture;
+        mEventTimes[index] = eventTimeNs;
+        mProximity[index] = proximity;
+        // Publishes the slot contents to the consumer
+        mTail.lazySet(tail + 1);
+        mEnqueued.incrementAndGet();
+        return OFFER_QUEUED;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return false if the queue is empty
+     */
+    boolean poll(Entry entry) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        if (head == tail) {
+            return false;
+        }
+        if (mPolicy != POLICY_REPLACE_PENDING) {
+            int index = (int) head & mMask;
+            entry.gesture = mGestures[index];
+            entry.eventTimeNs = mEventTimes[index];
+            entry.proximity = mProximity[index];
+            mHead.lazySet(head + 1);
+            return true;
+        }
+        while (true) {
+            // Copied before the compare-and-set: once it succeeds the
+            // producer may reuse the slots
+            int skipped = (int) (tail - head - 1);
+            for (int i = 0; i < skipped; i++) {
+                int index = (int) (head + i) & mMask;
+                mSkippedGestures[i] = mGestures[index];
+                mSkippedEventTimes[i] = mEventTimes[index];
+            }
+            int index = (int) (tail - 1) & mMask;
+            entry.gesture = mGestures[index];
+            entry.eventTimeNs = mEventTimes[index];
+            entry.proximity = mProximity[index];
+            // Fails if a full producer dropped the oldest entry meanwhile,
+            // the copies may then be torn
+            if (mHead.compareAndSet(head, tail)) {
+                if (skipped > 0) {
+                    mDropped.addAndGet(skipped);
+                    for (int i = 0; i < skipped; i++) {
+                        mDropListener.onGestureDropped(mSkippedGestures[i],
+                                mSkippedEventTimes[i]);
+                    }
+                }
+                return true;
+            }
+            head = mHead.get();
+            tail = mTail.get();
+        }
+    }
+
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    long getEnqueuedCount() {
+        return mEnqueued.get();
+    }
+
+    long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    String getPolicyName() {
+        return POLICY_NAMES[mPolicy];
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.io.PrintWriter;
+
+/**
+ * Gesture latency histograms, split per gesture code and per action and
+ * kept separately for the proximity-checked and unchecked paths. All
+ * histograms are allocated up front; recording only touches atomics.
+ *
+ * Latencies are measured from KeyEvent.getEventTime(). That is
+ * uptimeMillis(), which shares CLOCK_MONOTONIC with System.nanoTime().
+ */
+final class GestureStats {
+
+    static final int STAGE_READ = 0;     // gesture_data parsed
+    static final int STAGE_DISPATCH = 1; // action handler started
+    static final int STAGE_ACTION = 2;   // action returned
+    private static final int STAGE_COUNT = 3;
+    private static final String[] STAGE_NAMES = { "read", "dispatch", "action" };
+
+    private static final int[] GESTURE_CODES = KeyHandler.GESTURE_CODES;
+    // Anything the driver reports that is not listed above
+    private static final int OTHER_SLOT = GESTURE_CODES.length;
+    private static final int SLOT_COUNT = GESTURE_CODES.length + 1;
+
+    private final LatencyHistogram[][][] mGestures =
+            new LatencyHistogram[2][SLOT_COUNT][STAGE_COUNT];
+    private final LatencyHistogram[][] mActions =
+            new LatencyHistogram[2][GestureActions.COUNT];
+    // KeyEvent time to startActivityAsUser() returning for the camera gesture
+    private final LatencyHistogram mCameraLaunch = new LatencyHistogram();
+
+    GestureStats() {
+        for (int p = 0; p < 2; p++) {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    mGestures[p][slot][stage] = new LatencyHistogram();
+                }
+            }
+            for (int action = 0; action < GestureActions.COUNT; action++) {
+                mActions[p][action] = new LatencyHistogram();
+            }
+        }
+    }
+
+    static int getSlot(int gesture) {
+        for (int i = 0; i < GESTURE_CODES.length; i++) {
+            if (GESTURE_CODES[i] == gesture) {
+                return i;
+            }
+        }
+        return OTHER_SLOT;
+    }
+
+    void recordGesture(int gesture, boolean proximity, int stage, long nanos) {
+        mGestures[proximity ? 1 : 0][getSlot(gesture)][stage].record(nanos);
+    }
+
+    void recordAction(int action, boolean proximity, long nanos) {
+        if (action >= 0 && action < GestureActions.COUNT) {
+            mActions[proximity ? 1 : 0][action].record(nanos);
+        }
+    }
+
+    void recordCameraLaunch(long nanos) {
+        mCameraLaunch.record(nanos);
+    }
+
+    void reset() {
+        mCameraLaunch.reset();
+        for (int p = 0; p < 2; p++) {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    mGestures[p][slot][stage].reset();
+                }
+            }
+            for (int action = 0; action < GestureActions.COUNT; action++) {
+                mActions[p][action].reset();
+            }
+        }
+    }
+
+    /**
+     * One line per non-empty histogram, in key=value form so it can be
+     * scraped from dumpsys output.
+     */
+    void dump(PrintWriter pw) {
+        pw.println("Gesture latency (us, from KeyEvent time):");
+        for (int p = 0; p < 2; p++) {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                String gesture = slot == OTHER_SLOT
+                        ? "other" : String.valueOf(GESTURE_CODES[slot]);
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    dumpHistogram(pw, "gesture=" + gesture + " proximity=" + (p == 1)
+                            + " stage=" + STAGE_NAMES[stage], mGestures[p][slot][stage]);
+                }
+            }
+        }
+        pw.println("Action latency (us, from KeyEvent time):");
+        for (int p = 0; p < 2; p++) {
+            for (int action = 0; action < GestureActions.COUNT; action++) {
+                dumpHistogram(pw, "action=" + GestureActions.getName(action)
+                        + " proximity=" + (p == 1), mActions[p][action]);
+            }
+        }
+        dumpHistogram(pw, "camera_launch", mCameraLaunch);
+    }
+
+    private static void dumpHistogram(PrintWriter pw, String label, LatencyHistogram h) {
+        long count = h.getCount();
+        if (count == 0) {
+            return;
+        }
+        pw.println("  " + label + " count=" + count
+                + " p50=" + h.getPercentileUs(0.50)
+                + " p99=" + h.getPercentileUs(0.99)
+                + " max=" + h.getMaxUs());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size ring of gesture outcomes in a memory-mapped file, so a trace
+ * survives crashes and reboots and can be pulled and replayed later.
+ *
+ * Layout (little endian):
+ *   header, 64 bytes:
+ *     0  magic, 4 layout version, 8 entry size, 12 capacity,
+ *     16 sequence of the next entry, 24 generation (opens of the file),
+ *     32 wall clock minus System.nanoTime() for the current generation, ns
+ *   entries, 32 bytes each, at 64 + (sequence % capacity) * 32:
+ *     0  KeyEvent time (uptime ns)
+ *     8  event to dispatch (us), 12 event to outcome (us)
+ *     16 scan code (short), 18 gesture code, 19 proximity result,
+ *     20 action, 21 outcome, 22 generation (low byte)
+ *     24 sequence, written last so a torn entry is skipped by readers
+ *
+ * Recording is a handful of stores into the mapping; the kernel writes the
+ * pages back. Also compiled into the host replay tool.
+ */
+final class GestureTrace implements Closeable {
+
+    // Where KeyHandler keeps its trace
+    static final String DEFAULT_FILE = "/data/system/gesture_trace";
+
+    // Proximity results as in ProximityGate, plus "not checked"
+    static final int PROXIMITY_NOT_CHECKED = 0;
+
+    static final int OUTCOME_HANDLED = 1;   // action ran
+    static final int OUTCOME_NO_ACTION = 2; // nothing bound to the gesture
+    static final int OUTCOME_COALESCED = 3; // identical gesture already queued
+    static final int OUTCOME_DROPPED = 4;   // queue full
+    static final int OUTCOME_REJECTED = 5;  // proximity sensor covered
+    static final int OUTCOME_FAILED = 6;    // action threw or had no target
+    static final int OUTCOME_UNREADABLE = 7; // gesture_data read failed
+    static final int OUTCOME_COUNT = 8;
+
+    private static final String[] OUTCOME_NAMES = {
+        "unknown", "handled", "no_action", "coalesced", "dropped", "rejected", "failed",
+        "unreadable"
+    };
+    private static final String[] PROXIMITY_NAMES = {
+        "unchecked", "approved", "rejected", "timed_out"
+    };
+
+    private static final int MAGIC = 0x43525447; // "GTRC"
+    private static final int LAYOUT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 32;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_ENTRY_SIZE = 8;
+    private static final int HEADER_CAPACITY = 12;
+    private static final int HEADER_NEXT_SEQUENCE = 16;
+    private static final int HEADER_GENERATION = 24;
+    private static final int HEADER_WALL_OFFSET = 32;
+
+    private static final int ENTRY_EVENT_TIME = 0;
+    private static final int ENTRY_DISPATCH_US = 8;
+    private static final int ENTRY_DONE_US = 12;
+    private static final int ENTRY_SCAN_CODE = 16;
+    private static final int ENTRY_GESTURE = 18;
+    private static final int ENTRY_PROXIMITY = 19;
+    private static final int ENTRY_ACTION = 20;
+    private static final int ENTRY_OUTCOME = 21;
+    private static final int ENTRY_GENERATION = 22;
+    private static final int ENTRY_SEQUENCE = 24;
+
+    /**
+     * A decoded entry, used by readers of a pulled trace.
+     */
+    static final class Entry {
+        long sequence;
+        int generation;
+        long eventTimeNs;
+        int dispatchUs;
+        int doneUs;
+        int scanCode;
+        int gesture;
+        int proximityResult;
+        int action;
+        int outcome;
+
+        @Override
+        public String toString() {
+            return "seq=" + sequence + " gen=" + generation + " time_ns=" + eventTimeNs
+                    + " scan_code=" + scanCode + " gesture=" + gesture
+                    + " proximity=" + getProximityName(proximityResult)
+                    + " action=" + GestureActions.getName(action)
+                    + " outcome=" + getOutcomeName(outcome)
+                    + " dispatch_us=" + dispatchUs + " done_us=" + doneUs;
+        }
+    }
+
+    private final int mCapacity;
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private long mNextSequence;
+    private int mGeneration;
+
+    /**
+     * Maps the trace file, starting a new one if it is missing or was
+     * written with another layout or capacity.
+     */
+    GestureTrace(File file, int capacity) throws IOException {
+        mCapacity = capacity;
+        int size = HEADER_SIZE + capacity * ENTRY_SIZE;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            if (mFile.length() != size) {
+                mFile.setLength(0);
+                mFile.setLength(size);
+            }
+            mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (mBuffer.getInt(HEADER_MAGIC) != MAGIC
+                || mBuffer.getInt(HEADER_VERSION) != LAYOUT_VERSION
+                || mBuffer.getInt(HEADER_ENTRY_SIZE) != ENTRY_SIZE
+                || mBuffer.getInt(HEADER_CAPACITY) != capacity) {
+            for (int i = 0; i < size; i += 8) {
+                mBuffer.putLong(i, 0);
+            }
+            mBuffer.putInt(HEADER_VERSION, LAYOUT_VERSION);
+            mBuffer.putInt(HEADER_ENTRY_SIZE, ENTRY_SIZE);
+            mBuffer.putInt(HEADER_CAPACITY, capacity);
+            mBuffer.putInt(HEADER_MAGIC, MAGIC);
+        }
+        mNextSequence = mBuffer.getLong(HEADER_NEXT_SEQUENCE);
+        mGeneration = mBuffer.getInt(HEADER_GENERATION) + 1;
+        mBuffer.putInt(HEADER_GENERATION, mGeneration);
+        mBuffer.putLong(HEADER_WALL_OFFSET,
+                System.currentTimeMillis() * 1000000L - System.nanoTime());
+    }
+
+    /**
+     * @param dispatchUs event to dispatch, 0 if the gesture never got there
+     */
+    synchronized void record(int scanCode, int gesture, long eventTimeNs, int dispatchUs,
+            int proximityResult, int action, int outcome) {
+        if (mBuffer == null) {
+            return;
+        }
+        long sequence = mNextSequence++;
+        int entry = HEADER_SIZE + (int) (sequence % mCapacity) * ENTRY_SIZE;
+        // Invalidate the slot first, a reader must not mix old and new fields
+        mBuffer.putLong(entry + ENTRY_SEQUENCE, -1);
+        mBuffer.putLong(entry + ENTRY_EVENT_TIME, eventTimeNs);
+        mBuffer.putInt(entry + ENTRY_DISPATCH_US, dispatchUs);
+        mBuffer.putInt(entry + ENTRY_DONE_US, toMicros(System.nanoTime() - eventTimeNs));
+        mBuffer.putShort(entry + ENTRY_SCAN_CODE, (short) scanCode);
+        mBuffer.put(entry + ENTRY_GESTURE, (byte) gesture);
+        mBuffer.put(entry + ENTRY_PROXIMITY, (byte) proximityResult);
+        mBuffer.put(entry + ENTRY_ACTION, (byte) action);
+        mBuffer.put(entry + ENTRY_OUTCOME, (byte) outcome);
+        mBuffer.put(entry + ENTRY_GENERATION, (byte) mGeneration);
+        mBuffer.putLong(entry + ENTRY_SEQUENCE, sequence);
+        mBuffer.putLong(HEADER_NEXT_SEQUENCE, mNextSequence);
+    }
+
+    synchronized long getRecordedCount() {
+        return mNextSequence;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public synchronized void close() {
+        mBuffer = null;
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+            }
+            mFile = null;
+        }
+    }
+
+    static int toMicros(long nanos) {
+        long us = nanos / 1000;
+        return us > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(us, 0);
+    }
+
+    static String getOutcomeName(int outcome) {
+        return outcome > 0 && outcome < OUTCOME_NAMES.length
+                ? OUTCOME_NAMES[outcome] : OUTCOME_NAMES[0];
+    }
+
+    static String getProximityName(int result) {
+        return result >= 0 && result < PROXIMITY_NAMES.length
+                ? PROXIMITY_NAMES[result] : PROXIMITY_NAMES[0];
+    }
+
+    /**
+     * Reads the entries of a trace file, oldest first. Entries whose
+     * sequence does not match their slot (torn or never written) are skipped.
+     */
+    static List<Entry> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer b;
+        try {
+            b = ByteBuffer.allocate((int) raf.length());
+            raf.readFully(b.array());
+        } finally {
+            raf.close();
+        }
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        if (b.capacity() < HEADER_SIZE || b.getInt(HEADER_MAGIC) != MAGIC
+                || b.getInt(HEADER_VERSION) != LAYOUT_VERSION
+                || b.getInt(HEADER_ENTRY_SIZE) != ENTRY_SIZE) {
+            throw new IOException(file + " is not a gesture trace");
+        }
+        int capacity = b.getInt(HEADER_CAPACITY);
+        if (capacity <= 0 || HEADER_SIZE + (long) capacity * ENTRY_SIZE > b.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+        long next = b.getLong(HEADER_NEXT_SEQUENCE);
+        List<Entry> entries = new ArrayList<Entry>();
+        for (long sequence = Math.max(0, next - capacity); sequence < next; sequence++) {
+            int entry = HEADER_SIZE + (int) (sequence % capacity) * ENTRY_SIZE;
+            if (b.getLong(entry + ENTRY_SEQUENCE) != sequence) {
+                continue;
+            }
+            Entry e = new Entry();
+            e.sequence = sequence;
+            e.generation = b.get(entry + ENTRY_GENERATION) & 0xff;
+            e.eventTimeNs = b.getLong(entry + ENTRY_EVENT_TIME);
+            e.dispatchUs = b.getInt(entry + ENTRY_DISPATCH_US);
+            e.doneUs = b.getInt(entry + ENTRY_DONE_US);
+            e.scanCode = b.getShort(entry + ENTRY_SCAN_CODE) & 0xffff;
+            e.gesture = b.get(entry + ENTRY_GESTURE) & 0xff;
+            e.proximityResult = b.get(entry + ENTRY_PROXIMITY);
+            e.action = b.get(entry + ENTRY_ACTION);
+            e.outcome = b.get(entry + ENTRY_OUTCOME);
+            entries.add(e);
+        }
+        return entries;
+    }
+}
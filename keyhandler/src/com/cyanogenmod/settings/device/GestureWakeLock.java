@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.os.PowerManager.WakeLock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the CPU awake while gesture actions run and lets go as soon as the
+ * last running action reports completion. The timeout given at construction
+ * is only a safety cap, re-armed on every acquire.
+ *
+ * Time held is accounted per action, measured from acquire() to release()
+ * and clamped to the cap, and passed on to GesturePowerStats per gesture.
+ */
+final class GestureWakeLock {
+
+    private final WakeLock mWakeLock;
+    private final long mCapMs;
+    private final GesturePowerStats mPowerStats;
+
+    private int mActive;
+    private long mHeldSinceNs;
+    private long mTotalHeldNs;
+
+    private final AtomicLongArray mActionCount = new AtomicLongArray(GestureActions.COUNT);
+    private final AtomicLongArray mActionHeldNs = new AtomicLongArray(GestureActions.COUNT);
+
+    GestureWakeLock(WakeLock wakeLock, long capMs, GesturePowerStats powerStats) {
+        mWakeLock = wakeLock;
+        mCapMs = capMs;
+        mPowerStats = powerStats;
+        // Our own count decides when to release, the cap is re-armed per acquire
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * @return token to hand back to release()
+     */
+    synchronized long acquire() {
+        long now = System.nanoTime();
+        mWakeLock.acquire(mCapMs);
+        if (mActive++ == 0) {
+            mHeldSinceNs = now;
+        }
+        return now;
+    }
+
+    synchronized void release(int gesture, int action, long token) {
+        long now = System.nanoTime();
+        long heldNs = Math.min(now - token, mCapMs * 1000000L);
+        mPowerStats.add(gesture, action, GesturePowerStats.GESTURE_WAKELOCK_NS, heldNs);
+        if (action >= 0 && action < GestureActions.COUNT) {
+            mActionCount.incrementAndGet(action);
+            mActionHeldNs.addAndGet(action, heldNs);
+        }
+        if (mActive > 0 && --mActive == 0) {
+            mTotalHeldNs += Math.min(now - mHeldSinceNs, mCapMs * 1000000L);
+            if (mWakeLock.isHeld()) {
+                mWakeLock.release();
+            }
+        }
+    }
+
+    synchronized long getTotalHeldMs() {
+        return mTotalHeldNs / 1000000L;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Gesture wakelock (cap " + mCapMs + " ms):");
+        pw.println("  total_held_ms=" + getTotalHeldMs());
+        for (int action = 0; action < GestureActions.COUNT; action++) {
+            long count = mActionCount.get(action);
+            if (count == 0) {
+                continue;
+            }
+            long heldMs = mActionHeldNs.get(action) / 1000000L;
+            pw.println("  action=" + GestureActions.getName(action) + " count=" + count
+                    + " held_ms=" + heldMs + " avg_ms=" + (heldMs / count));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.view.KeyEvent;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Swallows the BACK the mBack touch surface reports when the finger comes
+ * off the home button, if it was pressed while the screen was on.
+ *
+ * IDLE moves to HOME_HELD on an interactive HOME down and to HOME_RELEASED
+ * on the matching up, which starts the window. A BACK down while HOME is
+ * held or within the window after the up consumes the event; any other
+ * down, or a BACK after the window, goes back to IDLE and is passed on.
+ * Timing from the up keeps long presses of HOME covered.
+ *
+ * Only called on the input thread; the counters may be read from anywhere.
+ */
+final class HomeKeyFilter {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_HOME_HELD = 1;
+    private static final int STATE_HOME_RELEASED = 2;
+
+    private final long mWindowMs;
+
+    private int mState = STATE_IDLE;
+    private long mHomeUpTime;
+
+    private final AtomicLong mHomeArmed = new AtomicLong();
+    private final AtomicLong mBackSuppressed = new AtomicLong();
+    private final AtomicLong mBackPassed = new AtomicLong();
+    private final AtomicLong mWindowExpired = new AtomicLong();
+
+    HomeKeyFilter(long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * @param eventTime uptimeMillis() of the key event
+     * @return true if the key event has to be consumed
+     */
+    boolean onKeyEvent(int keyCode, int action, long eventTime, boolean interactive) {
+        if (action == KeyEvent.ACTION_UP) {
+            if (keyCode == KeyEvent.KEYCODE_HOME && mState == STATE_HOME_HELD) {
+                mState = STATE_HOME_RELEASED;
+                mHomeUpTime = eventTime;
+            }
+            return false;
+        }
+        if (action != KeyEvent.ACTION_DOWN) {
+            return false;
+        }
+        int state = mState;
+        boolean armed = state != STATE_IDLE;
+        mState = STATE_IDLE;
+        if (keyCode == KeyEvent.KEYCODE_BACK) {
+            if (state == STATE_HOME_HELD
+                    || (state == STATE_HOME_RELEASED && eventTime - mHomeUpTime <= mWindowMs)) {
+                mBackSuppressed.incrementAndGet();
+                return true;
+            }
+            if (armed) {
+                mWindowExpired.incrementAndGet();
+            }
+            mBackPassed.incrementAndGet();
+        } else if (keyCode == KeyEvent.KEYCODE_HOME && interactive) {
+            mState = STATE_HOME_HELD;
+            mHomeArmed.incrementAndGet();
+        }
+        return false;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  window_ms=" + mWindowMs + " home_armed=" + mHomeArmed.get()
+                + " back_suppressed=" + mBackSuppressed.get()
+                + " back_passed=" + mBackPassed.get()
+                + " window_expired=" + mWindowExpired.get());
+    }
+}
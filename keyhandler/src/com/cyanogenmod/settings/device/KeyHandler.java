@@ -16,58 +16,71 @@
 
 package com.cyanogenmod.settings.device;
 
-import android.app.ActivityManagerNative;
 import android.app.KeyguardManager;
 import android.content.ActivityNotFoundException;
-import android.content.ContentResolver;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.hardware.CmHardwareManager;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.hardware.TorchManager;
-import android.media.session.MediaSessionLegacyHelper;
-import android.net.Uri;
+import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.os.RemoteException;
+import android.os.Process;
 import android.os.ServiceManager;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.Vibrator;
-import android.provider.MediaStore;
 import android.provider.Settings;
 import android.provider.Settings.Global;
 import android.util.Log;
 import android.view.KeyEvent;
-import android.view.WindowManagerGlobal;
 
 import com.android.internal.os.DeviceKeyHandler;
-import com.android.internal.util.ArrayUtils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import org.cyanogenmod.hardware.SysfsNode;
+
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import android.app.Instrumentation;
 import android.content.SharedPreferences;
-import android.content.ContextWrapper;
 
 public class KeyHandler implements DeviceKeyHandler {
 
     private static final String TAG = KeyHandler.class.getSimpleName();
+    private static final boolean DEBUG = false;
     private static final int GESTURE_REQUEST = 1;
 
+    // Queued gestures between the input thread and EventHandler
+    private static final int GESTURE_QUEUE_CAPACITY = 8;
+    private static final String GESTURE_QUEUE_POLICY_PROP = "persist.gesture.queue_policy";
+
+    // Exposes gesture statistics through "dumpsys devicekeyhandler"
+    private static final String DUMP_SERVICE = "devicekeyhandler";
+
     private static final String MEIZU_GESTURE_DATA =
             "/sys/devices/platform/mx-gs/gesture_data";
 
+    // Ring of recent gesture outcomes, pull it for GestureTraceReplay
+    private static final int GESTURE_TRACE_CAPACITY = 1024;
+
     private static final String KEY_GESTURE_HAPTIC_FEEDBACK =
             "touchscreen_gesture_haptic_feedback";
 
@@ -96,60 +109,339 @@ public class KeyHandler implements DeviceKeyHandler {
     public static final int UNICODE_V_R = 0xC9;
     public static final int UNICODE_Z = 0xCA;
 
+    static final int[] GESTURE_CODES = {
+        DOUBLE_TAP,
+        SWIPE_X_LEFT, SWIPE_X_RIGHT, SWIPE_Y_UP, SWIPE_Y_DOWN,
+        UNICODE_E, UNICODE_C, UNICODE_W, UNICODE_M, UNICODE_O, UNICODE_S,
+        UNICODE_V_UP, UNICODE_V_DOWN, UNICODE_V_L, UNICODE_V_R, UNICODE_Z,
+    };
+
+    // Safety cap only, the wakelock is released once the action completes
     private static final int GESTURE_WAKELOCK_DURATION = 3000;
 
+    // What handleKeyEvent() does per scan code; everything else is passed on untouched
+    private static final int ROUTE_NONE = 0;
+    private static final int ROUTE_HOME = 1;    // mBack: home press and touch back
+    private static final int ROUTE_GESTURE = 2; // gesture_data is ready
+    private static final int GESTURE_SCAN_CODE = 195;
+    private static final int ROUTE_COUNT = 3;
+    private static final String[] ROUTE_NAMES = { "none", "home", "gesture" };
+    private static final byte[] SCAN_CODE_ROUTES = new byte[256];
+
+    static {
+        SCAN_CODE_ROUTES[102] = ROUTE_HOME;
+        SCAN_CODE_ROUTES[GESTURE_SCAN_CODE] = ROUTE_GESTURE;
+    }
+
+    // Who ran the deferred initialization, and its steps
+    private static final int INIT_BY_WARMUP = 1;
+    private static final int INIT_BY_GESTURE = 2;
+    private static final String[] INIT_TRIGGER_NAMES = { "none", "warmup", "gesture" };
+
+    private static final int INIT_STEP_TRACE = 0;
+    private static final int INIT_STEP_WAKELOCK = 1;
+    private static final int INIT_STEP_CMACTIONS = 2;
+    private static final int INIT_STEP_PROXIMITY = 3;
+    private static final int INIT_STEP_VIBRATOR = 4;
+    private static final int INIT_STEP_RECEIVERS = 5;
+    private static final int INIT_STEP_DUMP_SERVICE = 6;
+    private static final int INIT_STEP_COUNT = 7;
+    private static final String[] INIT_STEP_NAMES = {
+        "trace", "wakelock", "cmactions", "proximity", "vibrator", "receivers", "dump_service"
+    };
+
+    // A touch back reported this long after a home press is a real back
+    private static final long HOME_BACK_WINDOW_MS = 800;
+
+    // Haptic confirmation per action: a short tick for media keys, a double
+    // tick for zen mode changes and a single 50 ms buzz for everything else
+    private static final long[][] HAPTIC_PATTERNS = new long[GestureActions.COUNT][];
+
+    static {
+        Arrays.fill(HAPTIC_PATTERNS, new long[] { 0, 50 });
+        long[] mediaTick = { 0, 30 };
+        HAPTIC_PATTERNS[GestureActions.PLAY] = mediaTick;
+        HAPTIC_PATTERNS[GestureActions.PREV] = mediaTick;
+        HAPTIC_PATTERNS[GestureActions.NEXT] = mediaTick;
+        long[] zenTick = { 0, 30, 60, 30 };
+        HAPTIC_PATTERNS[GestureActions.DO_NOT_DISTURB] = zenTick;
+        HAPTIC_PATTERNS[GestureActions.NORMAL] = zenTick;
+        HAPTIC_PATTERNS[GestureActions.MUTE] = zenTick;
+    }
+
     private final Context mContext;
 
+    /*
+     * Threading:
+     * - handleKeyEvent() runs on the input thread, which alone owns
+     *   mHomeKeyFilter and the gesture_data reader.
+     * - mGestureThread drains the gesture queue, runs the proximity gate and
+     *   the latency-critical actions, and issues the haptic confirmation.
+     *   mTorchManager, mCmHardwareManager, the gate state and the media key
+     *   batches are confined to it.
+     * - mSlowActionThread runs lower priority work (zen mode writes,
+     *   launch intent resolution) so it can't delay the next wake gesture.
+     *   It also refreshes the tracked keyguard state, runs the screen
+     *   wake-up issued alongside a camera launch and the deferred init.
+     */
+    private final HandlerThread mGestureThread;
+    private final HandlerThread mSlowActionThread;
+    private final Handler mSlowActionHandler;
+
     private final PowerManager mPowerManager;
     private KeyguardManager mKeyguardManager;
+    /*
+     * Snapshot of the system state gestures depend on, so the hot path reads
+     * fields instead of going over binder. Kept current on the slow thread
+     * by the screen and user-present broadcasts and a settings observer.
+     */
+    private volatile boolean mKeyguardSecure = true;
+    private volatile boolean mKeyguardLocked = true;
+    private volatile boolean mProximityWakeCheckEnabled;
+    private boolean mProximityWakeCheckDefault;
+    private volatile long mStateUpdates;
+    // Recycled CameraWakeUp posts, see obtainCameraWakeUp()
+    private final Object mCameraWakeUpLock = new Object();
+    private CameraWakeUp mCameraWakeUpPool;
+    private final Intent mDismissKeyguardIntent = new Intent(ACTION_DISMISS_KEYGUARD);
     private EventHandler mEventHandler;
     private SensorManager mSensorManager;
     private TorchManager mTorchManager;
+    private CmHardwareManager mCmHardwareManager;
+    private boolean mVibratorIntensitySupported;
     private PackageManager mPackageManager;
     private Sensor mProximitySensor;
     private Vibrator mVibrator;
     private WakeLock mProximityWakeLock;
-    private WakeLock mGestureWakeLock;
+    private GestureWakeLock mGestureWakeLock;
+    private MediaKeyDispatcher mMediaKeyDispatcher;
+    private final LaunchIntentCache mLaunchIntentCache;
+    private ProximityGate mProximityGate;
     private int mProximityTimeOut;
     private boolean mProximityWakeSupported;
     private Instrumentation m_Instrumentation;
     private Context cmaContext = null;
+    // Bindings published by CMActions, null if its context is unavailable
+    private GestureConfig mGestureConfig;
+
+    private final HomeKeyFilter mHomeKeyFilter = new HomeKeyFilter(HOME_BACK_WINDOW_MS);
+    // Follows SCREEN_ON/SCREEN_OFF so key events don't ask PowerManager
+    private volatile boolean mInteractive;
+    private final AtomicLongArray mRouteEvents = new AtomicLongArray(ROUTE_COUNT);
+
+    // gesture_data stays open for the life of the handler
+    private final SysfsNode mGestureDataNode;
+    // Gesture keys whose gesture_data could not be read
+    private final AtomicLong mUnreadableGestures = new AtomicLong();
+
+    private final GestureStats mStats = new GestureStats();
+    private final GesturePowerStats mPowerStats = new GesturePowerStats();
+    private final File mTraceFile;
+    // Null if the trace file can't be mapped; also read on the input thread
+    private volatile GestureTrace mTrace;
 
-    private boolean isLastPressHomeButton = false;
+    /*
+     * The constructor runs on the system_server boot path and only sets up
+     * what is needed to accept key events. initialize() does the rest on
+     * the slow thread right after, or on the gesture thread if a gesture
+     * gets there first. Fields set by it are only read after
+     * ensureInitialized() or a check of mInitialized.
+     */
+    private final Object mInitLock = new Object();
+    private volatile boolean mInitialized;
+    private final long[] mInitStepNs = new long[INIT_STEP_COUNT];
+    private long mConstructorNs;
+    private long mInitNs;
+    private int mInitTrigger;
+    // Time the first gesture waited for initialize(), -1 if it didn't
+    private long mFirstGestureWaitNs = -1;
+
+    private final GestureQueue mGestureQueue;
+    // Only touched on the EventHandler thread
+    private final GestureQueue.Entry mQueueEntry = new GestureQueue.Entry();
+    private long mGatedEventTimeNs;
     //private boolean mNotificationSliderVibrate;
 
     public KeyHandler(Context context) {
+        this(context, MEIZU_GESTURE_DATA, new File(GestureTrace.DEFAULT_FILE));
+    }
+
+    /**
+     * For host harnesses, which bring their own gesture_data and trace files.
+     */
+    KeyHandler(Context context, String gestureDataPath, File traceFile) {
+        final long startNs = System.nanoTime();
         mContext = context;
+        mGestureDataNode = SysfsNode.get(gestureDataPath);
+        // Each read is a gesture, don't skip any of them after a failure
+        mGestureDataNode.setBackoff(false);
         mPackageManager = context.getPackageManager();
+        mLaunchIntentCache = new LaunchIntentCache(mPackageManager);
         mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-        mEventHandler = new EventHandler();
+        // Seeded here so the home/back filter works before initialize()
+        mInteractive = mPowerManager.isInteractive();
+        mGestureThread = new HandlerThread("GestureHandler", Process.THREAD_PRIORITY_DISPLAY);
+        mGestureThread.start();
+        mSlowActionThread = new HandlerThread("GestureSlowAction",
+                Process.THREAD_PRIORITY_DEFAULT);
+        mSlowActionThread.start();
+        mEventHandler = new EventHandler(mGestureThread.getLooper());
+        mSlowActionHandler = new Handler(mSlowActionThread.getLooper());
+        mGestureQueue = new GestureQueue(GESTURE_QUEUE_CAPACITY, GestureQueue.parsePolicy(
+                SystemProperties.get(GESTURE_QUEUE_POLICY_PROP, ""),
+                GestureQueue.POLICY_COALESCE_IDENTICAL), new GestureQueue.DropListener() {
+            @Override
+            public void onGestureDropped(int gesture, long eventTimeNs) {
+                // Accounted like a gesture offer() turns away
+                mPowerStats.increment(gesture, -1, GesturePowerStats.DROPPED);
+                traceGesture(gesture, eventTimeNs, 0, GestureTrace.PROXIMITY_NOT_CHECKED,
+                        GestureActions.NONE, GestureTrace.OUTCOME_DROPPED);
+            }
+        });
+        mTraceFile = traceFile;
+        mConstructorNs = System.nanoTime() - startNs;
+
+        // Everything else waits for the warm-up below or the first gesture,
+        // whichever comes first
+        mSlowActionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ensureInitialized(INIT_BY_WARMUP);
+            }
+        });
+    }
+
+    private void ensureInitialized(int trigger) {
+        if (mInitialized) {
+            return;
+        }
+        synchronized (mInitLock) {
+            if (mInitialized) {
+                return;
+            }
+            long startNs = System.nanoTime();
+            initialize();
+            mInitNs = System.nanoTime() - startNs;
+            mInitTrigger = trigger;
+            mInitialized = true;
+            Log.i(TAG, "Initialized by " + INIT_TRIGGER_NAMES[trigger] + " in "
+                    + mInitNs / 1000 + " us, constructor took " + mConstructorNs / 1000 + " us");
+        }
+    }
+
+    private long endInitStep(int step, long startNs) {
+        long now = System.nanoTime();
+        mInitStepNs[step] = now - startNs;
+        return now;
+    }
+
+    /**
+     * The part of the setup gestures can wait for. Runs once, under mInitLock.
+     */
+    private void initialize() {
+        long t = System.nanoTime();
         m_Instrumentation = new Instrumentation();
-        mGestureWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
-                "GestureWakeLock");
+        try {
+            mTrace = new GestureTrace(mTraceFile, GESTURE_TRACE_CAPACITY);
+        } catch (IOException e) {
+            Log.w(TAG, "Gesture trace disabled", e);
+        }
+        t = endInitStep(INIT_STEP_TRACE, t);
+
+        mGestureWakeLock = new GestureWakeLock(mPowerManager.newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK, "GestureWakeLock"), GESTURE_WAKELOCK_DURATION,
+                mPowerStats);
+        mMediaKeyDispatcher = new MediaKeyDispatcher(mContext, mEventHandler.getLooper(),
+                mGestureWakeLock);
+        t = endInitStep(INIT_STEP_WAKELOCK, t);
 
         try {
             cmaContext = mContext.createPackageContext("com.cyanogenmod.settings.device", Context.CONTEXT_RESTRICTED);
+            mGestureConfig = new GestureConfig(
+                    new File(cmaContext.getFilesDir(), GestureConfig.FILE_NAME));
         } catch (Exception e) {
             e.printStackTrace();
         }
+        t = endInitStep(INIT_STEP_CMACTIONS, t);
 
         final Resources resources = mContext.getResources();
         mProximityTimeOut = resources.getInteger(
                 com.android.internal.R.integer.config_proximityCheckTimeout);
         mProximityWakeSupported = resources.getBoolean(
                 com.android.internal.R.bool.config_proximityCheckOnWake);
+        mProximityWakeCheckDefault = resources.getBoolean(
+                com.android.internal.R.bool.config_proximityCheckOnWakeEnabledByDefault);
 
         if (mProximityWakeSupported) {
-            mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+            mSensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
             mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
             mProximityWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
                     "ProximityWakeLock");
+            if (mProximitySensor != null) {
+                mProximityGate = new ProximityGate(mSensorManager, mProximitySensor,
+                        mProximityWakeLock, mProximityTimeOut, mEventHandler.getLooper(),
+                        mPowerStats, new ProximityGate.Callback() {
+                    @Override
+                    public void onProximityResult(int gesture, int result) {
+                        if (result != ProximityGate.RESULT_REJECTED) {
+                            handleGesture(gesture, mGatedEventTimeNs, result);
+                        } else {
+                            traceGesture(gesture, mGatedEventTimeNs, 0, result,
+                                    GestureActions.NONE, GestureTrace.OUTCOME_REJECTED);
+                        }
+                        // Pick up whatever queued up behind the gated gesture
+                        mEventHandler.sendEmptyMessage(GESTURE_REQUEST);
+                    }
+                });
+            }
         }
+        t = endInitStep(INIT_STEP_PROXIMITY, t);
 
-        mVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        mVibrator = (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
         if (mVibrator == null || !mVibrator.hasVibrator()) {
             mVibrator = null;
         }
+        t = endInitStep(INIT_STEP_VIBRATOR, t);
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageFilter, null,
+                mSlowActionHandler);
+        // Bindings are edited in CMActions while the screen is on, re-check them
+        // when it goes off and gestures become usable.
+        mContext.registerReceiver(mPackageReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF),
+                null, mSlowActionHandler);
+        mSlowActionHandler.post(mPrefetchLaunchIntents);
+
+        IntentFilter screenStateFilter = new IntentFilter();
+        screenStateFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        screenStateFilter.addAction(Intent.ACTION_SCREEN_ON);
+        screenStateFilter.addAction(Intent.ACTION_USER_PRESENT);
+        mInteractive = mPowerManager.isInteractive();
+        mContext.registerReceiver(mScreenStateReceiver, screenStateFilter, null, mSlowActionHandler);
+        // Registered before the first read so no change falls in between
+        mContext.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.PROXIMITY_ON_WAKE), false,
+                new ProximityWakeObserver(mSlowActionHandler));
+        mProximityWakeCheckEnabled = readProximityWakeCheckEnabled(mProximityWakeCheckDefault);
+        mSlowActionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                refreshKeyguardState();
+            }
+        });
+        t = endInitStep(INIT_STEP_RECEIVERS, t);
+
+        try {
+            ServiceManager.addService(DUMP_SERVICE, new DumpBinder());
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to publish " + DUMP_SERVICE, e);
+        }
+        endInitStep(INIT_STEP_DUMP_SERVICE, t);
     }
 
     private void ensureKeyguardManager() {
@@ -165,191 +457,473 @@ public class KeyHandler implements DeviceKeyHandler {
         }
     }
 
+    // CMHW starts after the key handler, so it is looked up on first use
+    private void ensureCmHardwareManager() {
+        if (mCmHardwareManager == null) {
+            mCmHardwareManager =
+                    (CmHardwareManager) mContext.getSystemService(Context.CMHW_SERVICE);
+            mVibratorIntensitySupported = mCmHardwareManager != null
+                    && mCmHardwareManager.isSupported(CmHardwareManager.FEATURE_VIBRATOR);
+        }
+    }
+
+    /**
+     * Stops the gesture threads. system_server never unloads the handler,
+     * this is for hosts that create and discard KeyHandler instances.
+     */
+    public void shutdown() {
+        mGestureThread.quitSafely();
+        mSlowActionThread.quitSafely();
+        mGestureDataNode.close();
+    }
+
     private class EventHandler extends Handler {
+        EventHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
-            try {
-                boolean gestureHandled = true;
-                int gestureData = (int) msg.obj;
-                String prefValue = getCMAStringPref(String.valueOf(gestureData) + "_action");
-                Log.i(TAG, "Handling gesture: " + gestureData + " with action: " + prefValue);
-                switch (prefValue) {
-                    case "wakeUp":
-                        mPowerManager.wakeUpWithProximityCheck(SystemClock.uptimeMillis());
-                        break;
-                    case "unlock":
-                        ensureKeyguardManager();
-                        mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                        mContext.sendBroadcastAsUser(new Intent(ACTION_DISMISS_KEYGUARD),
-                                UserHandle.CURRENT);
-                        mPowerManager.wakeUp(SystemClock.uptimeMillis());
-                        break;
-                    case "camera":
-                        ensureKeyguardManager();
-                        final String action;
-                        mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                        if (mKeyguardManager.isKeyguardSecure() && mKeyguardManager.isKeyguardLocked()) {
-                            action = MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA_SECURE;
-                        } else {
-                            mContext.sendBroadcastAsUser(new Intent(ACTION_DISMISS_KEYGUARD),
-                                    UserHandle.CURRENT);
-                            action = MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA;
-                        }
-                        mPowerManager.wakeUp(SystemClock.uptimeMillis());
-                        Intent intent = new Intent(action, null);
-                        startActivitySafely(intent);
-                        break;
-                    case "play":
-                        dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
-                        break;
-                    case "flashlight":
-                        ensureTorchManager();
-                        mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                        mTorchManager.toggleTorch();
-                        break;
-                    case "prev":
-                        dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
-                        break;
-                    case "next":
-                        dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_NEXT);
+            switch (msg.what) {
+                case GESTURE_REQUEST:
+                    drainGestureQueue();
+                    break;
+            }
+        }
+    }
+
+    private void drainGestureQueue() {
+        if (!mInitialized) {
+            long startNs = System.nanoTime();
+            ensureInitialized(INIT_BY_GESTURE);
+            mFirstGestureWaitNs = System.nanoTime() - startNs;
+        }
+        final GestureQueue.Entry entry = mQueueEntry;
+        // A gesture waiting on the proximity sensor holds back the ones behind it
+        while (mProximityGate == null || !mProximityGate.isPending()) {
+            if (!mGestureQueue.poll(entry)) {
+                break;
+            }
+            if (entry.proximity && mProximityGate != null) {
+                mGatedEventTimeNs = entry.eventTimeNs;
+                mProximityGate.check(entry.gesture, getGestureAction(entry.gesture));
+            } else {
+                handleGesture(entry.gesture, entry.eventTimeNs,
+                        GestureTrace.PROXIMITY_NOT_CHECKED);
+            }
+        }
+    }
+
+    /**
+     * @param proximityResult ProximityGate result, or PROXIMITY_NOT_CHECKED
+     */
+    private void handleGesture(int gestureData, long eventTimeNs, int proximityResult) {
+        final boolean proximity = proximityResult != GestureTrace.PROXIMITY_NOT_CHECKED;
+        int action = GestureActions.NONE;
+        // Non-zero while this call holds the gesture wakelock
+        long wakeToken = 0;
+        long dispatchNs = System.nanoTime() - eventTimeNs;
+        // Left at 0 when a SlowAction records the outcome
+        int outcome = GestureTrace.OUTCOME_FAILED;
+        try {
+            boolean gestureHandled = true;
+            mStats.recordGesture(gestureData, proximity, GestureStats.STAGE_DISPATCH,
+                    dispatchNs);
+            action = getGestureAction(gestureData);
+            if (DEBUG) Log.i(TAG, "Handling gesture: " + gestureData + " with action: "
+                    + GestureActions.getName(action));
+            // Each case confirms with haptics once its target is known; the
+            // vibrator only queues the buzz, it plays while the action runs
+            switch (action) {
+                case GestureActions.WAKE_UP:
+                    doHapticFeedback(action);
+                    mPowerManager.wakeUpWithProximityCheck(SystemClock.uptimeMillis());
+                    break;
+                case GestureActions.UNLOCK:
+                    doHapticFeedback(action);
+                    wakeToken = mGestureWakeLock.acquire();
+                    mContext.sendBroadcastAsUser(mDismissKeyguardIntent, UserHandle.CURRENT);
+                    mPowerManager.wakeUp(SystemClock.uptimeMillis());
+                    break;
+                case GestureActions.CAMERA:
+                    doHapticFeedback(action);
+                    boolean secureCamera = mKeyguardSecure && mKeyguardLocked;
+                    // Dismiss the keyguard and wake the screen on the slow thread
+                    // while the camera activity is started here; the wake-up
+                    // owns the gesture's only wakelock token
+                    mSlowActionHandler.postAtFrontOfQueue(obtainCameraWakeUp(gestureData,
+                            mGestureWakeLock.acquire(), !secureCamera));
+                    startActivitySafely(mLaunchIntentCache.getCameraIntent(secureCamera));
+                    mStats.recordCameraLaunch(System.nanoTime() - eventTimeNs);
+                    break;
+                case GestureActions.PLAY:
+                    doHapticFeedback(action);
+                    mMediaKeyDispatcher.playPause();
+                    break;
+                case GestureActions.FLASHLIGHT:
+                    doHapticFeedback(action);
+                    ensureTorchManager();
+                    wakeToken = mGestureWakeLock.acquire();
+                    mTorchManager.toggleTorch();
+                    break;
+                case GestureActions.PREV:
+                case GestureActions.NEXT:
+                    // Batched only with skips already queued up behind this one
+                    doHapticFeedback(action);
+                    mMediaKeyDispatcher.skip(gestureData, action, mGestureQueue.size() > 0);
+                    break;
+                case GestureActions.DO_NOT_DISTURB:
+                case GestureActions.NORMAL:
+                case GestureActions.MUTE:
+                    // Settings provider write, finished on the slow thread
+                    doHapticFeedback(action);
+                    mSlowActionHandler.post(new SlowAction(gestureData, action, eventTimeNs,
+                            dispatchNs, proximityResult, null, 0));
+                    gestureHandled = false;
+                    outcome = 0;
+                    break;
+                case GestureActions.LAUNCH:
+                    String packageName = getLaunchPackage(gestureData);
+                    if (packageName == null) {
+                        gestureHandled = false;
+                        outcome = GestureTrace.OUTCOME_NO_ACTION;
                         break;
-                    case "doNotDisturb":
+                    }
+                    // A cached intent confirms the gesture before the binder
+                    // calls below; a miss is confirmed once it resolves
+                    Intent appIntent = mLaunchIntentCache.get(packageName);
+                    if (appIntent != null) {
+                        doHapticFeedback(action);
+                    }
+                    wakeToken = mGestureWakeLock.acquire();
+                    if (!mKeyguardSecure && mKeyguardLocked) {
+                        mContext.sendBroadcastAsUser(mDismissKeyguardIntent, UserHandle.CURRENT);
+                    }
+                    mPowerManager.wakeUp(SystemClock.uptimeMillis());
+                    if (appIntent != null) {
+                        startActivitySafely(appIntent);
+                    } else {
+                        // Not resolved yet, that goes over binder: finish on the slow
+                        // thread, which confirms the gesture if the package resolves
+                        // and releases the wakelock once the activity started
+                        mSlowActionHandler.post(new SlowAction(gestureData, action, eventTimeNs,
+                                dispatchNs, proximityResult, packageName, wakeToken));
+                        wakeToken = 0;
+                        gestureHandled = false;
+                        outcome = 0;
+                    }
+                    break;
+                default:
+                    gestureHandled = false;
+                    outcome = GestureTrace.OUTCOME_NO_ACTION;
+                    break;
+            }
+            if (gestureHandled) {
+                onGestureActionDone(gestureData, action, eventTimeNs, proximity);
+                outcome = GestureTrace.OUTCOME_HANDLED;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Gesture EventHandler", e);
+        } finally {
+            if (wakeToken != 0) {
+                mGestureWakeLock.release(gestureData, action, wakeToken);
+            }
+            if (outcome != 0) {
+                traceGesture(gestureData, eventTimeNs, dispatchNs, proximityResult, action,
+                        outcome);
+            }
+        }
+    }
+
+    private void traceGesture(int gestureData, long eventTimeNs, long dispatchNs,
+            int proximityResult, int action, int outcome) {
+        if (mTrace != null) {
+            mTrace.record(GESTURE_SCAN_CODE, gestureData, eventTimeNs,
+                    GestureTrace.toMicros(dispatchNs), proximityResult, action, outcome);
+        }
+    }
+
+    private void onGestureActionDone(int gestureData, int action, long eventTimeNs,
+            boolean proximity) {
+        long actionNs = System.nanoTime() - eventTimeNs;
+        mStats.recordGesture(gestureData, proximity, GestureStats.STAGE_ACTION, actionNs);
+        mStats.recordAction(action, proximity, actionNs);
+    }
+
+    /**
+     * Action work that is allowed to queue behind latency-critical gestures.
+     * Runs on mSlowActionThread.
+     */
+    private class SlowAction implements Runnable {
+        private final int mGesture;
+        private final int mAction;
+        private final long mEventTimeNs;
+        private final long mDispatchNs;
+        private final int mProximityResult;
+        private final String mPackageName;
+        private final long mWakeToken;
+
+        SlowAction(int gesture, int action, long eventTimeNs, long dispatchNs,
+                int proximityResult, String packageName, long wakeToken) {
+            mGesture = gesture;
+            mAction = action;
+            mEventTimeNs = eventTimeNs;
+            mDispatchNs = dispatchNs;
+            mProximityResult = proximityResult;
+            mPackageName = packageName;
+            mWakeToken = wakeToken;
+        }
+
+        @Override
+        public void run() {
+            int outcome = GestureTrace.OUTCOME_FAILED;
+            try {
+                switch (mAction) {
+                    case GestureActions.DO_NOT_DISTURB:
                         Global.putInt(mContext.getContentResolver(), Global.ZEN_MODE,
                                 Global.ZEN_MODE_NO_INTERRUPTIONS);
                         break;
-                    case "normal":
+                    case GestureActions.NORMAL:
                         Global.putInt(mContext.getContentResolver(), Global.ZEN_MODE,
                                 Global.ZEN_MODE_OFF);
                         break;
-                    case "mute":
+                    case GestureActions.MUTE:
                         Global.putInt(mContext.getContentResolver(), Global.ZEN_MODE,
                                 Global.ZEN_MODE_IMPORTANT_INTERRUPTIONS);
                         break;
-                    default:
-                        if (prefValue.startsWith("launch$")) {
-                            String packageName = prefValue.replace("launch$", "");
-                            ensureKeyguardManager();
-                            mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                            if (!mKeyguardManager.isKeyguardSecure() && mKeyguardManager.isKeyguardLocked()) {
-                                mContext.sendBroadcastAsUser(new Intent(ACTION_DISMISS_KEYGUARD),
-                                        UserHandle.CURRENT);
-                            }
-                            mPowerManager.wakeUp(SystemClock.uptimeMillis());
-                            Intent appIntent = mPackageManager.getLaunchIntentForPackage(packageName);
-                            startActivitySafely(appIntent);
-                        } else {
-                            gestureHandled = false;
+                    case GestureActions.LAUNCH:
+                        Intent appIntent = mLaunchIntentCache.resolve(mPackageName);
+                        if (appIntent == null) {
+                            Log.w(TAG, "No launch intent for " + mPackageName);
+                            return;
                         }
+                        // Haptics stay on the gesture thread
+                        mEventHandler.post(mLaunchHapticFeedback);
+                        startActivitySafely(appIntent);
                         break;
+                    default:
+                        return;
                 }
-                if (gestureHandled)
-                    doHapticFeedback();
+                onGestureActionDone(mGesture, mAction, mEventTimeNs,
+                        mProximityResult != GestureTrace.PROXIMITY_NOT_CHECKED);
+                outcome = GestureTrace.OUTCOME_HANDLED;
             } catch (Exception e) {
-                Log.e(TAG, "Gesture EventHandler", e);
+                Log.e(TAG, "Gesture slow action", e);
+            } finally {
+                if (mWakeToken != 0) {
+                    mGestureWakeLock.release(mGesture, mAction, mWakeToken);
+                }
+                traceGesture(mGesture, mEventTimeNs, mDispatchNs, mProximityResult, mAction,
+                        outcome);
             }
         }
     }
 
-    public boolean handleKeyEvent(KeyEvent event) {
-        boolean isHandled = false;
+    // Confirms a launch resolved on the slow thread
+    private final Runnable mLaunchHapticFeedback = new Runnable() {
+        @Override
+        public void run() {
+            doHapticFeedback(GestureActions.LAUNCH);
+        }
+    };
 
+    /**
+     * Screen wake-up, and keyguard dismissal for the insecure camera, issued
+     * alongside a camera launch. Each post carries its own gesture and
+     * wakelock token, so back-to-back camera gestures are accounted apart.
+     * Runs on mSlowActionThread and returns itself to the pool.
+     */
+    private final class CameraWakeUp implements Runnable {
+        private int mGesture;
+        private long mWakeToken;
+        private boolean mDismissKeyguard;
+        private CameraWakeUp mNext;
 
-        switch (event.getScanCode()) {
-            case 102: // Home button event
-                if (event.getAction() == KeyEvent.ACTION_DOWN) {
-                    if (event.getKeyCode() == KeyEvent.KEYCODE_BACK && isLastPressHomeButton) {
-                        isHandled = true;
-                    }
-                    isLastPressHomeButton = mPowerManager.isInteractive()
-                            && event.getKeyCode() == KeyEvent.KEYCODE_HOME;
-                }
-                break;
-            case 195: // Gesture event
-                isHandled = true;
-                if (event.getAction() == KeyEvent.ACTION_DOWN) {
-                    try {
-                        int gestureData = readGestureData();
-
-                        if (gestureData != 0 && !mEventHandler.hasMessages(GESTURE_REQUEST)) {
-                            Message msg = getGestureMessage(gestureData);
-                            boolean defaultProximity = mContext.getResources().getBoolean(
-                                    com.android.internal.R.bool.config_proximityCheckOnWakeEnabledByDefault);
-                            boolean proximityWakeCheckEnabled = Settings.System.getInt(mContext.getContentResolver(),
-                                    Settings.System.PROXIMITY_ON_WAKE, defaultProximity ? 1 : 0) == 1;
-                            if (mProximityWakeSupported && proximityWakeCheckEnabled && mProximitySensor != null) {
-                                mEventHandler.sendMessageDelayed(msg, mProximityTimeOut);
-                                processEvent(event);
-                            } else {
-                                mEventHandler.sendMessage(msg);
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Gesture handling failed.", e);
-                        isHandled = false;
-                    }
+        @Override
+        public void run() {
+            int gesture = mGesture;
+            long wakeToken = mWakeToken;
+            boolean dismissKeyguard = mDismissKeyguard;
+            synchronized (mCameraWakeUpLock) {
+                mNext = mCameraWakeUpPool;
+                mCameraWakeUpPool = this;
+            }
+            try {
+                if (dismissKeyguard) {
+                    mContext.sendBroadcastAsUser(mDismissKeyguardIntent, UserHandle.CURRENT);
                 }
+                mPowerManager.wakeUp(SystemClock.uptimeMillis());
+            } finally {
+                mGestureWakeLock.release(gesture, GestureActions.CAMERA, wakeToken);
+            }
         }
-        return isHandled;
     }
 
-    private Message getGestureMessage(int gestureData) {
-        Message msg = mEventHandler.obtainMessage(GESTURE_REQUEST);
-        msg.obj = gestureData;
-        return msg;
+    private CameraWakeUp obtainCameraWakeUp(int gesture, long wakeToken,
+            boolean dismissKeyguard) {
+        CameraWakeUp wakeUp;
+        synchronized (mCameraWakeUpLock) {
+            wakeUp = mCameraWakeUpPool;
+            if (wakeUp != null) {
+                mCameraWakeUpPool = wakeUp.mNext;
+                wakeUp.mNext = null;
+            }
+        }
+        if (wakeUp == null) {
+            wakeUp = new CameraWakeUp();
+        }
+        wakeUp.mGesture = gesture;
+        wakeUp.mWakeToken = wakeToken;
+        wakeUp.mDismissKeyguard = dismissKeyguard;
+        return wakeUp;
     }
 
-    private Message getMessageForKeyEvent(KeyEvent keyEvent) {
-        Message msg = mEventHandler.obtainMessage(GESTURE_REQUEST);
-        msg.obj = keyEvent;
-        return msg;
+    // Runs on mSlowActionThread
+    private void refreshKeyguardState() {
+        ensureKeyguardManager();
+        mKeyguardSecure = mKeyguardManager.isKeyguardSecure();
+        mKeyguardLocked = mKeyguardManager.isKeyguardLocked();
+        mStateUpdates++;
     }
 
-    private void processEvent(final KeyEvent keyEvent) {
-        mProximityWakeLock.acquire();
-        mSensorManager.registerListener(new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                mProximityWakeLock.release();
-                mSensorManager.unregisterListener(this);
-                if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
-                    // The sensor took to long, ignoring.
-                    return;
-                }
-                mEventHandler.removeMessages(GESTURE_REQUEST);
-                if (event.values[0] == mProximitySensor.getMaximumRange()) {
-                    Message msg = getMessageForKeyEvent(keyEvent);
-                    mEventHandler.sendMessage(msg);
+    private boolean readProximityWakeCheckEnabled(boolean defaultEnabled) {
+        return Settings.System.getInt(mContext.getContentResolver(),
+                Settings.System.PROXIMITY_ON_WAKE, defaultEnabled ? 1 : 0) == 1;
+    }
+
+    // Runs on mSlowActionThread
+    private class ProximityWakeObserver extends ContentObserver {
+        ProximityWakeObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mProximityWakeCheckEnabled = readProximityWakeCheckEnabled(mProximityWakeCheckDefault);
+            mStateUpdates++;
+        }
+    }
+
+    // Runs on mSlowActionThread
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_USER_PRESENT.equals(action)) {
+                mKeyguardLocked = false;
+            } else if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                mInteractive = false;
+                // Locked until the screen is on again: a secure keyguard may
+                // lock after its delay without a broadcast, and the secure
+                // camera is the safe choice
+                mKeyguardLocked = true;
+                ensureKeyguardManager();
+                mKeyguardSecure = mKeyguardManager.isKeyguardSecure();
+                mStateUpdates++;
+            } else {
+                mInteractive = true;
+                refreshKeyguardState();
+            }
+        }
+    };
+
+    private final Runnable mPrefetchLaunchIntents = new Runnable() {
+        @Override
+        public void run() {
+            if (cmaContext == null) {
+                return;
+            }
+            for (int gesture : GESTURE_CODES) {
+                String packageName = getLaunchPackage(gesture);
+                if (packageName != null) {
+                    mLaunchIntentCache.prefetch(packageName);
                 }
             }
+        }
+    };
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    // Runs on mSlowActionThread
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() != null) {
+                mLaunchIntentCache.invalidate(intent.getData().getSchemeSpecificPart());
             }
+            mPrefetchLaunchIntents.run();
+        }
+    };
 
-        }, mProximitySensor, SensorManager.SENSOR_DELAY_FASTEST);
+    public boolean handleKeyEvent(KeyEvent event) {
+        int scanCode = event.getScanCode();
+        int route = scanCode >= 0 && scanCode < SCAN_CODE_ROUTES.length
+                ? SCAN_CODE_ROUTES[scanCode] : ROUTE_NONE;
+        switch (route) {
+            case ROUTE_HOME:
+                mRouteEvents.incrementAndGet(route);
+                return mHomeKeyFilter.onKeyEvent(event.getKeyCode(), event.getAction(),
+                        event.getEventTime(), mInteractive);
+            case ROUTE_GESTURE:
+                mRouteEvents.incrementAndGet(route);
+                return handleGestureKeyEvent(event);
+            default:
+                return false;
+        }
     }
 
-    private void dispatchMediaKeyWithWakeLockToMediaSession(int keycode) {
-        MediaSessionLegacyHelper helper = MediaSessionLegacyHelper.getHelper(mContext);
-        if (helper != null) {
-            KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
-                    SystemClock.uptimeMillis(), KeyEvent.ACTION_DOWN, keycode, 0);
-            helper.sendMediaButtonEvent(event, true);
-            event = KeyEvent.changeAction(event, KeyEvent.ACTION_UP);
-            helper.sendMediaButtonEvent(event, true);
-        } else {
-            Log.w(TAG, "Unable to send media key event");
+    private boolean handleGestureKeyEvent(KeyEvent event) {
+        if (event.getAction() != KeyEvent.ACTION_DOWN) {
+            return true;
         }
+        try {
+            int gestureData = readGestureData();
+            long readTimeNs = System.nanoTime();
+
+            if (gestureData < 0) {
+                // The key is consumed either way, leave a trace of the lost gesture
+                mUnreadableGestures.incrementAndGet();
+                traceGesture(0, event.getEventTime() * 1000000L, 0,
+                        GestureTrace.PROXIMITY_NOT_CHECKED, GestureActions.NONE,
+                        GestureTrace.OUTCOME_UNREADABLE);
+            } else if (gestureData != 0) {
+                boolean proximity;
+                if (mInitialized) {
+                    proximity = mProximityWakeCheckEnabled && mProximityGate != null;
+                } else {
+                    // No snapshot yet, read it directly; the gesture thread
+                    // ignores the flag if there turns out to be no gate
+                    boolean defaultProximity = mContext.getResources().getBoolean(
+                            com.android.internal.R.bool.config_proximityCheckOnWakeEnabledByDefault);
+                    proximity = readProximityWakeCheckEnabled(defaultProximity);
+                }
+                long eventTimeNs = event.getEventTime() * 1000000L;
+                mStats.recordGesture(gestureData, proximity, GestureStats.STAGE_READ,
+                        readTimeNs - eventTimeNs);
+                int offered = mGestureQueue.offer(gestureData, eventTimeNs, proximity);
+                if (offered == GestureQueue.OFFER_QUEUED) {
+                    if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
+                        mEventHandler.sendEmptyMessage(GESTURE_REQUEST);
+                    }
+                } else {
+                    // The binding is not looked up on the input thread
+                    mPowerStats.increment(gestureData, -1, offered == GestureQueue.OFFER_COALESCED
+                            ? GesturePowerStats.COALESCED : GesturePowerStats.DROPPED);
+                    traceGesture(gestureData, eventTimeNs, 0, GestureTrace.PROXIMITY_NOT_CHECKED,
+                            GestureActions.NONE, offered == GestureQueue.OFFER_COALESCED
+                                    ? GestureTrace.OUTCOME_COALESCED
+                                    : GestureTrace.OUTCOME_DROPPED);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Gesture handling failed.", e);
+            return false;
+        }
+        return true;
     }
 
+    // The intents come from mLaunchIntentCache with their flags already set
     private void startActivitySafely(Intent intent) {
-        intent.addFlags(
-                Intent.FLAG_ACTIVITY_NEW_TASK
-                        | Intent.FLAG_ACTIVITY_SINGLE_TOP
-                        | Intent.FLAG_ACTIVITY_CLEAR_TOP);
         try {
-            UserHandle user = new UserHandle(UserHandle.USER_CURRENT);
-            mContext.startActivityAsUser(intent, null, user);
+            mContext.startActivityAsUser(intent, null, UserHandle.CURRENT);
         } catch (ActivityNotFoundException e) {
             // Ignore
         }
@@ -368,36 +942,137 @@ public class KeyHandler implements DeviceKeyHandler {
         return cmaPrefs.getString(prefKey, "disabled");
     }
 
-    private void doHapticFeedback() {
+    // The preferences are only read until CMActions has published its config
+    private int getGestureAction(int gesture) {
+        if (mGestureConfig != null && mGestureConfig.refresh()) {
+            return mGestureConfig.getAction(gesture);
+        }
+        return GestureActions.fromPref(getCMAStringPref(GestureActions.getPrefKey(gesture)));
+    }
+
+    private String getLaunchPackage(int gesture) {
+        if (mGestureConfig != null && mGestureConfig.refresh()) {
+            return mGestureConfig.getLaunchPackage(gesture);
+        }
+        String prefValue = getCMAStringPref(GestureActions.getPrefKey(gesture));
+        return prefValue.startsWith(GestureActions.LAUNCH_PREFIX)
+                ? prefValue.substring(GestureActions.LAUNCH_PREFIX.length()) : null;
+    }
+
+    private void doHapticFeedback(int action) {
         if (mVibrator == null) {
             return;
         }
-        boolean enabled = getCMApref(TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK, false);
-        if (enabled) {
-            mVibrator.vibrate(50);
+        boolean enabled = mGestureConfig != null && mGestureConfig.refresh()
+                ? mGestureConfig.isHapticFeedbackEnabled()
+                : getCMApref(TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK, false);
+        if (!enabled) {
+            return;
         }
+        ensureCmHardwareManager();
+        // VibratorHW serves the intensity from its cached sysfs value; at the
+        // minimum the motor is not felt, so don't pretend to confirm anything
+        if (mVibratorIntensitySupported && mCmHardwareManager.getVibratorIntensity()
+                <= mCmHardwareManager.getVibratorMinIntensity()) {
+            return;
+        }
+        mVibrator.vibrate(HAPTIC_PATTERNS[action], -1);
     }
 
-    public String readSingleLine(File f) throws IOException {
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(f));
-            String line = reader.readLine();
-            reader.close();
-            return line;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ignored) {
-                }
+    /**
+     * @return the gesture code, 0 for none, or -1 if gesture_data can't be read
+     */
+    private int readGestureData() {
+        return mGestureDataNode.readInt(-1);
+    }
+
+    private void dump(PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            mStats.reset();
+            mPowerStats.reset();
+            pw.println("Statistics reset");
+            return;
+        }
+        if (args != null && args.length > 0 && "power".equals(args[0])) {
+            // "power reset" prints the window and starts a new one in one step
+            if (args.length > 1 && "reset".equals(args[1])) {
+                mPowerStats.takeSnapshot().dump(pw);
+            } else {
+                mPowerStats.snapshot().dump(pw);
+            }
+            return;
+        }
+        dumpStartup(pw);
+        mStats.dump(pw);
+        mPowerStats.snapshot().dump(pw);
+        mGestureWakeLock.dump(pw);
+        mMediaKeyDispatcher.dump(pw);
+        mLaunchIntentCache.dump(pw);
+        SysfsNode.dumpAll(pw);
+        pw.println("Scan codes:");
+        for (int scanCode = 0; scanCode < SCAN_CODE_ROUTES.length; scanCode++) {
+            int route = SCAN_CODE_ROUTES[scanCode];
+            if (route != ROUTE_NONE) {
+                pw.println("  scan_code=" + scanCode + " route=" + ROUTE_NAMES[route]
+                        + " events=" + mRouteEvents.get(route));
             }
         }
+        pw.println("  gesture_data_unreadable=" + mUnreadableGestures.get());
+        pw.println("System state:");
+        pw.println("  interactive=" + mInteractive + " keyguard_secure=" + mKeyguardSecure
+                + " keyguard_locked=" + mKeyguardLocked
+                + " proximity_on_wake=" + mProximityWakeCheckEnabled
+                + " proximity_on_wake_default=" + mProximityWakeCheckDefault
+                + " updates=" + mStateUpdates);
+        pw.println("Home/back filter:");
+        mHomeKeyFilter.dump(pw);
+        pw.println("Gesture queue:");
+        pw.println("  policy=" + mGestureQueue.getPolicyName()
+                + " size=" + mGestureQueue.size()
+                + " enqueued=" + mGestureQueue.getEnqueuedCount()
+                + " coalesced=" + mGestureQueue.getCoalescedCount()
+                + " dropped=" + mGestureQueue.getDroppedCount());
+        if (mTrace != null) {
+            pw.println("Gesture trace:");
+            pw.println("  capacity=" + mTrace.getCapacity()
+                    + " recorded=" + mTrace.getRecordedCount());
+        }
+        if (mProximityGate != null) {
+            pw.println("Proximity gate:");
+            pw.println("  approved=" + mProximityGate.getApprovedCount()
+                    + " rejected=" + mProximityGate.getRejectedCount()
+                    + " timed_out=" + mProximityGate.getTimedOutCount()
+                    + " sensor_sessions=" + mProximityGate.getSessionCount());
+        }
     }
 
-    private int readGestureData() throws Exception {
-        File f = new File(MEIZU_GESTURE_DATA);
-        return Integer.valueOf(readSingleLine(f));
+    private void dumpStartup(PrintWriter pw) {
+        pw.println("Startup (us):");
+        // The dump service is published by initialize(), wait for it to finish
+        synchronized (mInitLock) {
+            pw.println("  constructor=" + mConstructorNs / 1000 + " deferred=" + mInitNs / 1000
+                    + " by=" + INIT_TRIGGER_NAMES[mInitTrigger]
+                    + " first_gesture_wait=" + (mFirstGestureWaitNs < 0
+                            ? "none" : String.valueOf(mFirstGestureWaitNs / 1000)));
+            StringBuilder sb = new StringBuilder(" ");
+            for (int step = 0; step < INIT_STEP_COUNT; step++) {
+                sb.append(' ').append(INIT_STEP_NAMES[step]).append('=')
+                        .append(mInitStepNs[step] / 1000);
+            }
+            pw.println(sb);
+        }
     }
-}
 
+    private class DumpBinder extends Binder {
+        @Override
+        protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+            if (mContext.checkCallingOrSelfPermission(android.Manifest.permission.DUMP)
+                    != PackageManager.PERMISSION_GRANTED) {
+                pw.println("Permission Denial: can't dump " + DUMP_SERVICE + " from pid="
+                        + Binder.getCallingPid() + ", uid=" + Binder.getCallingUid());
+                return;
+            }
+            KeyHandler.this.dump(pw, args);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free latency histogram.
+ *
+ * Buckets are log-linear: each power of two of microseconds is split into
+ * SUB_BUCKETS linear buckets, values below SUB_BUCKETS get one bucket each,
+ * and the last bucket collects everything above. Percentiles are reported as
+ * the upper bound of the bucket they fall in, capped at the observed
+ * maximum, so they read at most 25% high.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Powers of two up to 2^25 us, the last bucket starts at ~29.4 s
+    private static final int BUCKETS = (25 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMaxUs = new AtomicLong();
+
+    void record(long nanos) {
+        long us = nanos < 0 ? 0 : nanos / 1000;
+        int bucket = Math.min(bucketOf(us), BUCKETS - 1);
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        long max;
+        while (us > (max = mMaxUs.get())) {
+            if (mMaxUs.compareAndSet(max, us)) {
+                break;
+            }
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getMaxUs() {
+        return mMaxUs.get();
+    }
+
+    /**
+     * @param fraction percentile in the range (0, 1], e.g. 0.99
+     */
+    long getPercentileUs(double fraction) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMaxUs.get());
+            }
+        }
+        return mMaxUs.get();
+    }
+
+    private static int bucketOf(long us) {
+        if (us < SUB_BUCKETS) {
+            return (int) us;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(us) - SUB_BITS;
+        int sub = (int) (us >> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mMaxUs.set(0);
+    }
+}
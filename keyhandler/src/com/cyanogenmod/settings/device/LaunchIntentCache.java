@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.provider.MediaStore;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Launch intents of the packages bound to "launch$" gestures, resolved ahead
+ * of time so a launch gesture does no PackageManager IPC.
+ *
+ * get() never leaves the process; resolve() asks PackageManager and should
+ * only be called off the gesture thread. Entries are dropped on package
+ * broadcasts and resolved again by the next prefetch.
+ *
+ * The camera gesture targets (secure and insecure still image camera) are
+ * kept here as well. They stay implicit: the default camera can change
+ * without a package broadcast.
+ *
+ * The intents are shared between threads and carry their launch flags from
+ * the start; callers must not modify them.
+ */
+final class LaunchIntentCache {
+
+    private static final int LAUNCH_FLAGS = Intent.FLAG_ACTIVITY_NEW_TASK
+            | Intent.FLAG_ACTIVITY_SINGLE_TOP
+            | Intent.FLAG_ACTIVITY_CLEAR_TOP;
+
+    private final PackageManager mPackageManager;
+    private final ConcurrentHashMap<String, Intent> mIntents =
+            new ConcurrentHashMap<String, Intent>();
+
+    private final Intent mCameraIntent;
+    private final Intent mSecureCameraIntent;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    LaunchIntentCache(PackageManager packageManager) {
+        mPackageManager = packageManager;
+        mCameraIntent = new Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA);
+        mCameraIntent.addFlags(LAUNCH_FLAGS);
+        mSecureCameraIntent = new Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA_SECURE);
+        mSecureCameraIntent.addFlags(LAUNCH_FLAGS);
+    }
+
+    /**
+     * @return the cached launch intent, or null if it still has to be resolved
+     */
+    Intent get(String packageName) {
+        Intent intent = mIntents.get(packageName);
+        if (intent != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return intent;
+    }
+
+    /**
+     * Resolves the launch intent through PackageManager and caches it.
+     *
+     * @return the launch intent, or null if the package has none
+     */
+    Intent resolve(String packageName) {
+        Intent intent = mPackageManager.getLaunchIntentForPackage(packageName);
+        if (intent != null) {
+            intent.addFlags(LAUNCH_FLAGS);
+            mIntents.put(packageName, intent);
+        }
+        return intent;
+    }
+
+    /**
+     * Resolves the package unless it is already cached.
+     */
+    void prefetch(String packageName) {
+        if (!mIntents.containsKey(packageName)) {
+            resolve(packageName);
+        }
+    }
+
+    /**
+     * @param secure whether the keyguard is secure and locked
+     */
+    Intent getCameraIntent(boolean secure) {
+        return secure ? mSecureCameraIntent : mCameraIntent;
+    }
+
+    void invalidate(String packageName) {
+        if (mIntents.remove(packageName) != null) {
+            mInvalidations.incrementAndGet();
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Launch intent cache:");
+        pw.println("  entries=" + mIntents.size() + " hits=" + mHits.get()
+                + " misses=" + mMisses.get() + " invalidations=" + mInvalidations.get());
+        for (String packageName : mIntents.keySet()) {
+            pw.println("  package=" + packageName);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Context;
+import android.media.session.MediaSessionLegacyHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.KeyEvent;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the media key gestures to the media session.
+ *
+ * Play/pause goes out at once, and so does a lone prev or next with no
+ * gesture queued behind it. Otherwise the skip opens a batch: swipes within
+ * BATCH_WINDOW_MS of the previous one join it, opposite directions cancel
+ * out, and the batch is sent as the net number of skips once the window
+ * closes or MAX_BATCH_DELAY_MS after its first swipe. The gesture wakelock
+ * is held while a batch is open.
+ *
+ * The media session has no multi-skip key, so a batch still sends one
+ * down/up pair per skip. Skips beyond MAX_BATCH_SKIPS are not sent and are
+ * counted as dropped. Events are handed on by reference and may sit in a
+ * queued broadcast, so they are never recycled. The helper is looked up
+ * once.
+ *
+ * Only called on the looper given at construction.
+ */
+final class MediaKeyDispatcher {
+
+    private static final String TAG = "MediaKeyDispatcher";
+
+    private static final long BATCH_WINDOW_MS = 300;
+    private static final long MAX_BATCH_DELAY_MS = 1000;
+    private static final int MAX_BATCH_SKIPS = 3;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final GestureWakeLock mWakeLock;
+    private MediaSessionLegacyHelper mHelper;
+
+    private boolean mBatchOpen;
+    // Net skips of the open batch, positive is next
+    private int mPendingSkips;
+    private int mBatchGesture;
+    private int mBatchAction;
+    private long mBatchStartMs;
+    private long mWakeToken;
+
+    private final AtomicLong mSkipGestures = new AtomicLong();
+    private final AtomicLong mBatches = new AtomicLong();
+    private final AtomicLong mSkipsSent = new AtomicLong();
+    private final AtomicLong mSkipsDropped = new AtomicLong();
+    private final AtomicLong mPlaySent = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    MediaKeyDispatcher(Context context, Looper looper, GestureWakeLock wakeLock) {
+        mContext = context;
+        mHandler = new Handler(looper);
+        mWakeLock = wakeLock;
+    }
+
+    void playPause() {
+        // Keep the order the gestures came in
+        flush();
+        if (send(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, 1)) {
+            mPlaySent.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param action GestureActions.PREV or GestureActions.NEXT
+     * @param morePending whether more gestures are queued behind this one
+     */
+    void skip(int gesture, int action, boolean morePending) {
+        long now = SystemClock.uptimeMillis();
+        mSkipGestures.incrementAndGet();
+        if (!mBatchOpen && !morePending) {
+            // Nothing to batch with, don't hold the skip for the window
+            mBatches.incrementAndGet();
+            if (send(action == GestureActions.NEXT ? KeyEvent.KEYCODE_MEDIA_NEXT
+                    : KeyEvent.KEYCODE_MEDIA_PREVIOUS, 1)) {
+                mSkipsSent.incrementAndGet();
+            }
+            return;
+        }
+        if (!mBatchOpen) {
+            mBatchOpen = true;
+            mBatchGesture = gesture;
+            mBatchAction = action;
+            mBatchStartMs = now;
+            mWakeToken = mWakeLock.acquire();
+        }
+        mPendingSkips += action == GestureActions.NEXT ? 1 : -1;
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush,
+                Math.max(0, Math.min(BATCH_WINDOW_MS, mBatchStartMs + MAX_BATCH_DELAY_MS - now)));
+    }
+
+    private void flush() {
+        if (!mBatchOpen) {
+            return;
+        }
+        mHandler.removeCallbacks(mFlush);
+        int skips = mPendingSkips;
+        mBatchOpen = false;
+        mPendingSkips = 0;
+        mBatches.incrementAndGet();
+        try {
+            int count = Math.min(Math.abs(skips), MAX_BATCH_SKIPS);
+            mSkipsDropped.addAndGet(Math.abs(skips) - count);
+            if (count > 0 && send(skips > 0 ? KeyEvent.KEYCODE_MEDIA_NEXT
+                    : KeyEvent.KEYCODE_MEDIA_PREVIOUS, count)) {
+                mSkipsSent.addAndGet(count);
+            }
+        } finally {
+            mWakeLock.release(mBatchGesture, mBatchAction, mWakeToken);
+        }
+    }
+
+    private boolean send(int keyCode, int count) {
+        if (mHelper == null) {
+            mHelper = MediaSessionLegacyHelper.getHelper(mContext);
+            if (mHelper == null) {
+                Log.w(TAG, "Unable to send media key event");
+                return false;
+            }
+        }
+        long now = SystemClock.uptimeMillis();
+        KeyEvent down = new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keyCode, 0);
+        KeyEvent up = KeyEvent.changeAction(down, KeyEvent.ACTION_UP);
+        for (int i = 0; i < count; i++) {
+            mHelper.sendMediaButtonEvent(down, true);
+            mHelper.sendMediaButtonEvent(up, true);
+        }
+        return true;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Media keys:");
+        pw.println("  play_sent=" + mPlaySent.get() + " skip_gestures=" + mSkipGestures.get()
+                + " batches=" + mBatches.get() + " skips_sent=" + mSkipsSent.get()
+                + " skips_dropped=" + mSkipsDropped.get());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds a gesture until the proximity sensor says the screen is uncovered.
+ *
+ * A gesture moves from PENDING to APPROVED (sensor uncovered), REJECTED
+ * (sensor covered) or TIMED_OUT (no reading within the timeout, the gesture
+ * goes ahead as before). The gate owns a single listener and keeps the sensor
+ * registered for a short while after each decision, so a gesture arriving in
+ * that window reuses the last reading instead of starting a new session.
+ * The wakelock only covers the wait for a decision; the linger does not
+ * hold the device awake, its release runs once something else wakes it.
+ *
+ * Wakelock and sensor time and the decisions are accounted to the gesture
+ * in GesturePowerStats. Sensor time goes to the gesture that registered
+ * and is added at each decision and once the sensor is released.
+ *
+ * All methods except isPending() must be called on the gate's looper.
+ */
+final class ProximityGate implements SensorEventListener {
+
+    interface Callback {
+        /**
+         * Called on the gate's looper once a pending gesture is decided.
+         */
+        void onProximityResult(int gesture, int result);
+    }
+
+    static final int RESULT_APPROVED = 1;
+    static final int RESULT_REJECTED = 2;
+    static final int RESULT_TIMED_OUT = 3;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PENDING = 1;
+
+    private static final int MSG_TIMEOUT = 1;
+    private static final int MSG_RELEASE_SENSOR = 2;
+
+    // How long the sensor stays registered after a decision
+    private static final long SESSION_LINGER_MS = 1500;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final WakeLock mWakeLock;
+    private final int mTimeoutMs;
+    private final Callback mCallback;
+    private final Handler mHandler;
+    private final GesturePowerStats mPowerStats;
+
+    private volatile int mState = STATE_IDLE;
+    private int mPendingGesture;
+    private int mPendingAction;
+    private long mWakeLockSinceNs;
+    private boolean mRegistered;
+    private long mRegisteredSinceNs;
+    private int mSessionGesture;
+    private int mSessionAction;
+    private boolean mHaveReading;
+    private boolean mLastCovered;
+
+    private final AtomicLong mApproved = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mTimedOut = new AtomicLong();
+    private final AtomicLong mSessions = new AtomicLong();
+
+    ProximityGate(SensorManager sensorManager, Sensor sensor, WakeLock wakeLock,
+            int timeoutMs, Looper looper, GesturePowerStats powerStats, Callback callback) {
+        mSensorManager = sensorManager;
+        mPowerStats = powerStats;
+        mSensor = sensor;
+        mWakeLock = wakeLock;
+        mTimeoutMs = timeoutMs;
+        mCallback = callback;
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_TIMEOUT:
+                        if (mState == STATE_PENDING) {
+                            decide(RESULT_TIMED_OUT);
+                        }
+                        break;
+                    case MSG_RELEASE_SENSOR:
+                        unregister();
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * True while a gesture is waiting for the sensor. Safe from any thread.
+     */
+    boolean isPending() {
+        return mState == STATE_PENDING;
+    }
+
+    /**
+     * Starts gating the given gesture.
+     *
+     * @param action what the gesture is bound to, for the power accounting
+     * @return false if another gesture is still pending and this one was dropped
+     */
+    boolean check(int gesture, int action) {
+        if (mState == STATE_PENDING) {
+            mPowerStats.increment(gesture, action, GesturePowerStats.DROPPED);
+            return false;
+        }
+        mPendingGesture = gesture;
+        mPendingAction = action;
+        mState = STATE_PENDING;
+        if (mRegistered && mHaveReading) {
+            // Sensor session from a previous gesture is still running
+            decide(mLastCovered ? RESULT_REJECTED : RESULT_APPROVED);
+            return true;
+        }
+        mWakeLock.acquire();
+        long now = SystemClock.elapsedRealtimeNanos();
+        mWakeLockSinceNs = now;
+        if (!mRegistered) {
+            // One covered/uncovered reading is all a gesture needs
+            mRegistered = mSensorManager.registerListener(this, mSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+            mRegisteredSinceNs = now;
+            mSessionGesture = gesture;
+            mSessionAction = action;
+            mSessions.incrementAndGet();
+        }
+        mHandler.removeMessages(MSG_RELEASE_SENSOR);
+        mHandler.sendEmptyMessageDelayed(MSG_TIMEOUT, mTimeoutMs);
+        return true;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        mLastCovered = event.values[0] < mSensor.getMaximumRange();
+        mHaveReading = true;
+        if (mState == STATE_PENDING) {
+            decide(mLastCovered ? RESULT_REJECTED : RESULT_APPROVED);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    private void decide(int result) {
+        mHandler.removeMessages(MSG_TIMEOUT);
+        int gesture = mPendingGesture;
+        int action = mPendingAction;
+        mState = STATE_IDLE;
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (mRegistered) {
+            // Back-to-back gestures keep the session open, so its time is
+            // added as it runs rather than only once the sensor is released
+            mPowerStats.add(mSessionGesture, mSessionAction, GesturePowerStats.SENSOR_NS,
+                    now - mRegisteredSinceNs);
+            mRegisteredSinceNs = now;
+        }
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+            mPowerStats.add(gesture, action, GesturePowerStats.PROXIMITY_WAKELOCK_NS,
+                    now - mWakeLockSinceNs);
+        }
+        switch (result) {
+            case RESULT_APPROVED:
+                mApproved.incrementAndGet();
+                break;
+            case RESULT_REJECTED:
+                mRejected.incrementAndGet();
+                mPowerStats.increment(gesture, action, GesturePowerStats.REJECTED);
+                break;
+            case RESULT_TIMED_OUT:
+                mTimedOut.incrementAndGet();
+                mPowerStats.increment(gesture, action, GesturePowerStats.TIMED_OUT);
+                break;
+        }
+        if (mRegistered) {
+            mHandler.removeMessages(MSG_RELEASE_SENSOR);
+            mHandler.sendEmptyMessageDelayed(MSG_RELEASE_SENSOR, SESSION_LINGER_MS);
+        }
+        mCallback.onProximityResult(gesture, result);
+    }
+
+    private void unregister() {
+        if (mRegistered && mState != STATE_PENDING) {
+            mSensorManager.unregisterListener(this);
+            long now = SystemClock.elapsedRealtimeNanos();
+            mPowerStats.add(mSessionGesture, mSessionAction, GesturePowerStats.SENSOR_NS,
+                    now - mRegisteredSinceNs);
+            mRegistered = false;
+            mHaveReading = false;
+        }
+    }
+
+    long getApprovedCount() {
+        return mApproved.get();
+    }
+
+    long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    long getTimedOutCount() {
+        return mTimedOut.get();
+    }
+
+    long getSessionCount() {
+        return mSessions.get();
+    }
+}
@@ -0,0 +1,18 @@
+LOCAL_PATH:= $(call my-dir)
+
+ifeq ($(TARGET_DEVICE),m2note)
+include $(CLEAR_VARS)
+
+# Host-side load test of the whole keyhandler, run against the stand-in
+# system services in ../hoststubs and a temp-directory mx-gs sysfs.
+# Also carries GestureTraceReplay for traces pulled from a device.
+LOCAL_MODULE := com.cyanogenmod.keyhandler-loadtest
+LOCAL_SRC_FILES := $(call all-java-files-under,src) \
+    $(call all-java-files-under,../keyhandler/src) \
+    ../cmhw/org/cyanogenmod/hardware/SysfsNode.java
+LOCAL_STATIC_JAVA_LIBRARIES := com.cyanogenmod.keyhandler-hoststubs
+LOCAL_JAR_MANIFEST := manifest.txt
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+endif
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks that the gesture path doesn't allocate, end to end.
+ *
+ * Each gesture is handed to KeyHandler.handleKeyEvent() and the check then
+ * waits, without allocating, until the handler made the service calls the
+ * gesture caused during warm-up. The bytes allocated by the input thread
+ * and the handler threads over the measured gestures are divided by the
+ * gesture count and compared against MAX_BYTES_PER_EVENT.
+ *
+ * Only actions that finish without leaving the handler are exercised:
+ * media keys hand a new KeyEvent to the session and zen mode writes go
+ * through the settings provider, both by design.
+ */
+final class AllocationCheck {
+
+    // Slack for one-off allocations inside the measured window
+    static final long MAX_BYTES_PER_EVENT = 16;
+
+    private static final int GESTURE_SCAN_CODE = 195;
+    private static final String[] HANDLER_THREADS = { "GestureHandler", "GestureSlowAction" };
+
+    private static final int[] GESTURES = {
+        KeyHandler.DOUBLE_TAP,
+        KeyHandler.SWIPE_Y_UP,
+        KeyHandler.UNICODE_C,
+        KeyHandler.UNICODE_E,
+        KeyHandler.UNICODE_M,
+    };
+
+    private static final long QUIET_NS = 100000000L;
+    private static final long MAX_WAIT_NS = 5000000000L;
+
+    private final HostSystem mSystem;
+    private final KeyHandler mHandler;
+    private final RandomAccessFile mGestureData;
+    private final com.sun.management.ThreadMXBean mThreads;
+
+    // Service calls each gesture caused during warm-up
+    private final long[] mCalls = new long[GESTURES.length];
+    private final byte[][] mCodes = new byte[GESTURES.length][];
+    private final KeyEvent[] mDown = new KeyEvent[GESTURES.length];
+    private final KeyEvent[] mUp = new KeyEvent[GESTURES.length];
+
+    AllocationCheck(HostSystem system, KeyHandler handler, RandomAccessFile gestureData) {
+        mSystem = system;
+        mHandler = handler;
+        mGestureData = gestureData;
+        mThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * @return true if the gestures stayed within MAX_BYTES_PER_EVENT
+     */
+    boolean run(int events) throws IOException {
+        if (!mThreads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocation check: not supported by this JVM");
+            return true;
+        }
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        for (int i = 0; i < GESTURES.length; i++) {
+            mCodes[i] = (GESTURES[i] + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // Warm-up: initializes the handler and its caches, and learns how
+        // many service calls mark each gesture as done
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < GESTURES.length; i++) {
+                newEvents(i);
+                long before = mSystem.getCallCount();
+                deliver(i);
+                mCalls[i] = waitQuiet(before) - before;
+                if (mCalls[i] == 0) {
+                    System.out.println("Allocation check: gesture " + GESTURES[i]
+                            + " made no service call");
+                    return false;
+                }
+            }
+        }
+
+        long[] tids = new long[HANDLER_THREADS.length + 1];
+        tids[0] = Thread.currentThread().getId();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            for (int i = 0; i < HANDLER_THREADS.length; i++) {
+                if (HANDLER_THREADS[i].equals(thread.getName())) {
+                    tids[i + 1] = thread.getId();
+                }
+            }
+        }
+        long[] start = new long[tids.length];
+        long[] end = new long[tids.length];
+        for (int i = 0; i < GESTURES.length; i++) {
+            newEvents(i);
+        }
+
+        readAllocated(tids, start);
+        long expected = mSystem.getCallCount();
+        for (int n = 0; n < events; n++) {
+            int i = n % GESTURES.length;
+            deliver(i);
+            expected += mCalls[i];
+            if (!waitCalls(expected)) {
+                System.out.println("Allocation check: gesture " + GESTURES[i] + " timed out");
+                return false;
+            }
+        }
+        readAllocated(tids, end);
+
+        long total = 0;
+        StringBuilder sb = new StringBuilder("Allocation check: events=" + events);
+        for (int i = 0; i < tids.length; i++) {
+            long bytes = end[i] - start[i];
+            total += bytes;
+            sb.append(' ').append(i == 0 ? "input" : HANDLER_THREADS[i - 1])
+                    .append("_bytes=").append(bytes);
+        }
+        long perEvent = total / events;
+        sb.append(" bytes_per_event=").append(perEvent)
+                .append(" limit=").append(MAX_BYTES_PER_EVENT);
+        System.out.println(sb);
+        return perEvent <= MAX_BYTES_PER_EVENT;
+    }
+
+    // The array read itself allocates, start and end pay for it equally
+    private void readAllocated(long[] tids, long[] out) {
+        long[] bytes = mThreads.getThreadAllocatedBytes(tids);
+        System.arraycopy(bytes, 0, out, 0, bytes.length);
+    }
+
+    private void newEvents(int i) {
+        long now = SystemClock.uptimeMillis();
+        mDown[i] = new KeyEvent(now, now, KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_UNKNOWN,
+                0, 0, 0, GESTURE_SCAN_CODE);
+        mUp[i] = new KeyEvent(now, now, KeyEvent.ACTION_UP, KeyEvent.KEYCODE_UNKNOWN,
+                0, 0, 0, GESTURE_SCAN_CODE);
+    }
+
+    private void deliver(int i) throws IOException {
+        // All codes are three digits, so the previous value is overwritten in full
+        mGestureData.seek(0);
+        mGestureData.write(mCodes[i]);
+        mHandler.handleKeyEvent(mDown[i]);
+        mHandler.handleKeyEvent(mUp[i]);
+    }
+
+    private boolean waitCalls(long expected) {
+        long start = System.nanoTime();
+        while (mSystem.getCallCount() < expected) {
+            if (System.nanoTime() - start > MAX_WAIT_NS) {
+                return false;
+            }
+            LockSupport.parkNanos(20000L);
+        }
+        return true;
+    }
+
+    private long waitQuiet(long before) {
+        long calls = before;
+        long quietSince = System.nanoTime();
+        while (System.nanoTime() - quietSince < QUIET_NS) {
+            LockSupport.parkNanos(5000000L);
+            long now = mSystem.getCallCount();
+            if (now != calls) {
+                calls = now;
+                quietSince = System.nanoTime();
+            }
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.os.IBinder;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.view.KeyEvent;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a gesture trace pulled from a device (/data/system/gesture_trace)
+ * back through the complete KeyHandler on the host and compares what it
+ * does with what was recorded.
+ *
+ * Each recorded gesture code is written to a temp-directory gesture_data
+ * and its key down and up are handed to KeyHandler.handleKeyEvent(), so the
+ * queue, the proximity gate, the wakelock and the action threads all run,
+ * against the HostSystem stand-ins. Gestures are bound to the action the
+ * trace recorded for them (launch gestures to a placeholder package) and
+ * the proximity sensor is scripted to give each gated gesture its recorded
+ * result. The handler's own trace of the replay is then read back and
+ * matched against the recorded one, entry by entry.
+ *
+ * Gestures arrive in event time order. At recorded speed the gaps between
+ * them are reproduced; at maximum speed they are dropped. The time actions
+ * take comes from the HostSystem latencies, not from the trace.
+ *
+ * java -cp com.cyanogenmod.keyhandler-loadtest.jar \
+ *     com.cyanogenmod.settings.device.GestureTraceReplay <trace> \
+ *     [--max-speed] [--policy drop_newest|replace_pending|coalesce_identical] [--dump]
+ */
+public class GestureTraceReplay {
+
+    private static final int GESTURE_SCAN_CODE = 195;
+    private static final String QUEUE_POLICY_PROP = "persist.gesture.queue_policy";
+    // Arrivals further apart than this are not waited for at recorded speed
+    private static final long MAX_GAP_NS = 2000000000L;
+
+    private final List<GestureTrace.Entry> mEntries;
+    private final boolean mRealtime;
+    private final HostSystem mSystem;
+    private final RandomAccessFile mGestureData;
+
+    // Host event time of each replayed entry, to match the handler's trace
+    private final long[] mReplayTimeNs;
+    private final GestureTrace.Entry[] mReplayed;
+
+    GestureTraceReplay(List<GestureTrace.Entry> entries, boolean realtime, HostSystem system,
+            RandomAccessFile gestureData) {
+        mEntries = entries;
+        mRealtime = realtime;
+        mSystem = system;
+        mGestureData = gestureData;
+        mReplayTimeNs = new long[entries.size()];
+        mReplayed = new GestureTrace.Entry[entries.size()];
+    }
+
+    /**
+     * Binds every gesture to the last action the trace recorded for it.
+     *
+     * @return true if any gesture went through the proximity check
+     */
+    static boolean bindGestures(List<GestureTrace.Entry> entries, HostSystem system) {
+        boolean proximity = false;
+        for (GestureTrace.Entry e : entries) {
+            proximity |= e.proximityResult != GestureTrace.PROXIMITY_NOT_CHECKED;
+            if (e.action == GestureActions.LAUNCH) {
+                system.bindGesture(e.gesture, GestureActions.LAUNCH_PREFIX
+                        + "replay.gesture" + e.gesture);
+            } else if (e.action != GestureActions.NONE) {
+                system.bindGesture(e.gesture, GestureActions.getName(e.action));
+            }
+        }
+        return proximity;
+    }
+
+    void replay(KeyHandler handler) throws IOException {
+        long previousTimeNs = 0;
+        int previousGeneration = -1;
+        for (int i = 0; i < mEntries.size(); i++) {
+            GestureTrace.Entry e = mEntries.get(i);
+            if (mRealtime && e.generation == previousGeneration) {
+                sleepNs(Math.min(e.eventTimeNs - previousTimeNs, MAX_GAP_NS));
+            }
+            previousTimeNs = e.eventTimeNs;
+            previousGeneration = e.generation;
+            // Gestures recorded without the check go through the gate when
+            // others had it, they get an uncovered reading
+            mSystem.setProximityScript(e.proximityResult != GestureTrace.PROXIMITY_NOT_CHECKED
+                    ? e.proximityResult : ProximityGate.RESULT_APPROVED);
+            // All codes are three digits, so the previous value is overwritten in full
+            mGestureData.seek(0);
+            mGestureData.write((e.gesture + "\n").getBytes(StandardCharsets.US_ASCII));
+            long eventTime = SystemClock.uptimeMillis();
+            mReplayTimeNs[i] = eventTime * 1000000L;
+            handler.handleKeyEvent(new KeyEvent(eventTime, eventTime, KeyEvent.ACTION_DOWN,
+                    KeyEvent.KEYCODE_UNKNOWN, 0, 0, 0, GESTURE_SCAN_CODE));
+            handler.handleKeyEvent(new KeyEvent(eventTime, eventTime, KeyEvent.ACTION_UP,
+                    KeyEvent.KEYCODE_UNKNOWN, 0, 0, 0, GESTURE_SCAN_CODE));
+        }
+    }
+
+    /**
+     * Pairs the handler's trace entries with the replayed ones by event time
+     * and gesture, in order where several share a millisecond.
+     */
+    void match(List<GestureTrace.Entry> replayTrace) {
+        Map<Long, ArrayDeque<Integer>> byTime = new HashMap<Long, ArrayDeque<Integer>>();
+        for (int i = 0; i < mEntries.size(); i++) {
+            ArrayDeque<Integer> slot = byTime.get(mReplayTimeNs[i]);
+            if (slot == null) {
+                slot = new ArrayDeque<Integer>();
+                byTime.put(mReplayTimeNs[i], slot);
+            }
+            slot.add(i);
+        }
+        for (GestureTrace.Entry r : replayTrace) {
+            ArrayDeque<Integer> slot = byTime.get(r.eventTimeNs);
+            if (slot == null) {
+                continue;
+            }
+            for (Integer i : slot) {
+                if (mReplayed[i] == null && mEntries.get(i).gesture == r.gesture) {
+                    mReplayed[i] = r;
+                    slot.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void sleepNs(long ns) {
+        long deadline = System.nanoTime() + ns;
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static boolean wasExecuted(GestureTrace.Entry e) {
+        return e.outcome == GestureTrace.OUTCOME_HANDLED
+                || e.outcome == GestureTrace.OUTCOME_NO_ACTION
+                || e.outcome == GestureTrace.OUTCOME_FAILED;
+    }
+
+    void report() {
+        List<GestureTrace.Entry> replayed = new ArrayList<GestureTrace.Entry>();
+        int same = 0;
+        int differ = 0;
+        int missing = 0;
+        int recovered = 0;
+        int lost = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            GestureTrace.Entry e = mEntries.get(i);
+            GestureTrace.Entry r = mReplayed[i];
+            if (r == null) {
+                missing++;
+                continue;
+            }
+            replayed.add(r);
+            if (r.outcome == e.outcome) {
+                same++;
+            } else {
+                differ++;
+            }
+            if (wasExecuted(r) && !wasExecuted(e) && e.outcome != GestureTrace.OUTCOME_REJECTED) {
+                recovered++;
+            } else if (!wasExecuted(r) && wasExecuted(e)) {
+                lost++;
+            }
+        }
+
+        printOutcomes("Recorded:", mEntries);
+        printOutcomes("Replayed (" + (mRealtime ? "recorded speed" : "max speed") + "):",
+                replayed);
+        System.out.println("Matched: same_outcome=" + same + " other_outcome=" + differ
+                + " not_traced=" + missing);
+        System.out.println("  executed_now_lost_then=" + recovered
+                + " lost_now_executed_then=" + lost);
+    }
+
+    private static void printOutcomes(String title, List<GestureTrace.Entry> entries) {
+        int[] outcomes = new int[GestureTrace.OUTCOME_COUNT];
+        LatencyHistogram dispatch = new LatencyHistogram();
+        LatencyHistogram done = new LatencyHistogram();
+        for (GestureTrace.Entry e : entries) {
+            if (e.outcome > 0 && e.outcome < outcomes.length) {
+                outcomes[e.outcome]++;
+            }
+            if (e.dispatchUs > 0) {
+                dispatch.record(e.dispatchUs * 1000L);
+                done.record(e.doneUs * 1000L);
+            }
+        }
+        StringBuilder sb = new StringBuilder(title);
+        for (int outcome = 1; outcome < outcomes.length; outcome++) {
+            sb.append(' ').append(GestureTrace.getOutcomeName(outcome))
+                    .append('=').append(outcomes[outcome]);
+        }
+        System.out.println(sb);
+        System.out.println("  dispatch_us " + percentiles(dispatch));
+        System.out.println("  done_us " + percentiles(done));
+    }
+
+    private static String percentiles(LatencyHistogram h) {
+        return "count=" + h.getCount() + " p50=" + h.getPercentileUs(0.5)
+                + " p99=" + h.getPercentileUs(0.99) + " max=" + h.getMaxUs();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String path = null;
+        boolean realtime = true;
+        boolean dump = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--max-speed".equals(args[i])) {
+                realtime = false;
+            } else if ("--dump".equals(args[i])) {
+                dump = true;
+            } else if ("--policy".equals(args[i]) && i + 1 < args.length) {
+                if (GestureQueue.parsePolicy(args[++i], -1) < 0) {
+                    System.err.println("Unknown policy " + args[i]);
+                    System.exit(1);
+                }
+                System.setProperty(QUEUE_POLICY_PROP, args[i]);
+            } else {
+                path = args[i];
+            }
+        }
+        if (path == null) {
+            System.err.println("Usage: GestureTraceReplay <trace> [--max-speed]"
+                    + " [--policy <name>] [--dump]");
+            System.exit(1);
+        }
+
+        List<GestureTrace.Entry> entries =
+                new ArrayList<GestureTrace.Entry>(GestureTrace.read(new File(path)));
+        // Outcomes are recorded when they happen, replay in arrival order
+        Collections.sort(entries, new Comparator<GestureTrace.Entry>() {
+            @Override
+            public int compare(GestureTrace.Entry a, GestureTrace.Entry b) {
+                if (a.generation != b.generation) {
+                    return a.sequence < b.sequence ? -1 : 1;
+                }
+                return a.eventTimeNs < b.eventTimeNs ? -1 : a.eventTimeNs > b.eventTimeNs ? 1 : 0;
+            }
+        });
+        if (dump) {
+            for (GestureTrace.Entry e : entries) {
+                System.out.println(e);
+            }
+        }
+        System.out.println("Trace: " + path + " entries=" + entries.size());
+
+        File root = File.createTempFile("mx-gs", null);
+        root.delete();
+        File sysfs = new File(root, "mx-gs");
+        File filesDir = new File(root, "files");
+        sysfs.mkdirs();
+        filesDir.mkdirs();
+
+        HostSystem system = new HostSystem(filesDir);
+        system.mServiceLatencyNs = 200000L;
+        system.mActivityLatencyNs = 2000000L;
+        Settings.sWriteLatencyNs = 1000000L;
+        system.mProximityCheck = bindGestures(entries, system);
+        Settings.System.putInt(system.getContentResolver(), Settings.System.PROXIMITY_ON_WAKE,
+                system.mProximityCheck ? 1 : 0);
+        GestureConfig.publish(system);
+
+        File gestureData = new File(sysfs, "gesture_data");
+        File traceFile = new File(root, "gesture_trace");
+        RandomAccessFile data = new RandomAccessFile(gestureData, "rw");
+        data.write("0\n".getBytes(StandardCharsets.US_ASCII));
+        KeyHandler handler = new KeyHandler(system, gestureData.getPath(), traceFile);
+        try {
+            GestureTraceReplay replay = new GestureTraceReplay(entries, realtime, system, data);
+            replay.replay(handler);
+            LoadTestRunner.drain(system);
+            replay.match(GestureTrace.read(traceFile));
+            replay.report();
+            System.out.flush();
+            IBinder service = ServiceManager.getService("devicekeyhandler");
+            if (service != null) {
+                service.dump(FileDescriptor.out, new String[0]);
+            }
+        } finally {
+            handler.shutdown();
+            data.close();
+            for (File dir : new File[] { sysfs, filesDir, root }) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+            root.delete();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.app.KeyguardManager;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TorchManager;
+import android.media.session.MediaSessionLegacyHelper;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.UserHandle;
+import android.os.Vibrator;
+import android.view.KeyEvent;
+
+import com.android.internal.R;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The system services KeyHandler talks to, as in-process stand-ins.
+ *
+ * Every service call spends the configured latency on the calling thread
+ * and is counted, so the harness sees what the handler asked for. While
+ * registered, the proximity sensor reports every mSensorDelayMs, each
+ * reading covered with the configured probability, or never when silent.
+ * A trace replay scripts the readings instead, see setProximityScript().
+ */
+final class HostSystem extends Context {
+
+    static final int CALL_WAKE_UP = 0;
+    static final int CALL_BROADCAST = 1;
+    static final int CALL_START_ACTIVITY = 2;
+    static final int CALL_TORCH = 3;
+    static final int CALL_MEDIA_KEY = 4;
+    static final int CALL_VIBRATE = 5;
+    static final int CALL_SENSOR_REGISTER = 6;
+    static final int CALL_RESOLVE = 7;
+    private static final int CALL_COUNT = 8;
+    private static final String[] CALL_NAMES = {
+        "wake_up", "broadcast", "start_activity", "torch", "media_key", "vibrate",
+        "sensor_register", "resolve"
+    };
+
+    private static final float PROXIMITY_MAX_RANGE = 5f;
+
+    // Latencies in ns, proximity timing in ms; set before the handler is created
+    volatile long mServiceLatencyNs;
+    volatile long mActivityLatencyNs;
+    volatile boolean mProximityCheck;
+    volatile int mProximityTimeoutMs = 250;
+    volatile long mSensorDelayMs = 5;
+    volatile int mCoveredPercent;
+    volatile boolean mSensorSilent;
+    // ProximityGate result the sensor readings produce, 0 for the random mix
+    private volatile int mProximityScript;
+    volatile boolean mKeyguardSecure;
+    volatile boolean mKeyguardLocked = true;
+
+    private final File mFilesDir;
+    private final AtomicLongArray mCalls = new AtomicLongArray(CALL_COUNT);
+    private final Preferences mPreferences = new Preferences();
+    private final ContentResolver mContentResolver = new ContentResolver();
+    private final Sensor mProximitySensor =
+            new Sensor(Sensor.TYPE_PROXIMITY, PROXIMITY_MAX_RANGE);
+
+    private final PowerManager mPowerManager = new PowerManager() {
+        @Override
+        public void wakeUp(long time) {
+            call(CALL_WAKE_UP, mServiceLatencyNs);
+        }
+    };
+
+    private final KeyguardManager mKeyguardManager = new KeyguardManager() {
+        @Override
+        public boolean isKeyguardSecure() {
+            return mKeyguardSecure;
+        }
+
+        @Override
+        public boolean isKeyguardLocked() {
+            return mKeyguardLocked;
+        }
+    };
+
+    private final TorchManager mTorchManager = new TorchManager() {
+        @Override
+        public void toggleTorch() {
+            call(CALL_TORCH, mServiceLatencyNs);
+        }
+    };
+
+    private final Vibrator mVibrator = new Vibrator() {
+        @Override
+        public boolean hasVibrator() {
+            return true;
+        }
+
+        @Override
+        public void vibrate(long[] pattern, int repeat) {
+            call(CALL_VIBRATE, 0);
+        }
+    };
+
+    private final Random mRandom = new Random();
+    private final Map<SensorEventListener, Handler> mSensorListeners =
+            new ConcurrentHashMap<SensorEventListener, Handler>();
+
+    private final SensorManager mSensorManager = new SensorManager() {
+
+        @Override
+        public Sensor getDefaultSensor(int type) {
+            return type == Sensor.TYPE_PROXIMITY ? mProximitySensor : null;
+        }
+
+        @Override
+        public boolean registerListener(final SensorEventListener listener, Sensor sensor,
+                int rate, final Handler handler) {
+            call(CALL_SENSOR_REGISTER, 0);
+            mSensorListeners.put(listener, handler);
+            if (!mSensorSilent) {
+                handler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSensorListeners.get(listener) == handler) {
+                            report(listener);
+                            handler.postDelayed(this, mSensorDelayMs);
+                        }
+                    }
+                }, mSensorDelayMs);
+            }
+            return true;
+        }
+
+        @Override
+        public void unregisterListener(SensorEventListener listener) {
+            mSensorListeners.remove(listener);
+        }
+    };
+
+    private final PackageManager mPackageManager = new PackageManager() {
+        @Override
+        public Intent getLaunchIntentForPackage(String packageName) {
+            call(CALL_RESOLVE, mServiceLatencyNs);
+            return new Intent("android.intent.action.MAIN").setPackage(packageName);
+        }
+
+        @Override
+        public ResolveInfo resolveActivity(Intent intent, int flags) {
+            call(CALL_RESOLVE, mServiceLatencyNs);
+            ResolveInfo info = new ResolveInfo();
+            info.activityInfo = new ActivityInfo();
+            info.activityInfo.packageName = "org.cyanogenmod.snap";
+            info.activityInfo.name = "com.android.camera.CameraActivity";
+            return info;
+        }
+    };
+
+    private final Resources mResources = new Resources() {
+        @Override
+        public int getInteger(int id) {
+            if (id == R.integer.config_proximityCheckTimeout) {
+                return mProximityTimeoutMs;
+            }
+            return super.getInteger(id);
+        }
+
+        @Override
+        public boolean getBoolean(int id) {
+            if (id == R.bool.config_proximityCheckOnWake) {
+                return mProximityCheck;
+            } else if (id == R.bool.config_proximityCheckOnWakeEnabledByDefault) {
+                return true;
+            }
+            return super.getBoolean(id);
+        }
+    };
+
+    HostSystem(File filesDir) {
+        mFilesDir = filesDir;
+        MediaSessionLegacyHelper.setHelper(new MediaSessionLegacyHelper() {
+            @Override
+            public void sendMediaButtonEvent(KeyEvent keyEvent, boolean needWakeLock) {
+                if (keyEvent.getAction() == KeyEvent.ACTION_UP) {
+                    call(CALL_MEDIA_KEY, mServiceLatencyNs);
+                }
+            }
+        });
+    }
+
+    // Runs on the listener's handler
+    private void report(SensorEventListener listener) {
+        int script = mProximityScript;
+        if (script == ProximityGate.RESULT_TIMED_OUT || !mSensorListeners.containsKey(listener)) {
+            return;
+        }
+        boolean covered = script == 0
+                ? mRandom.nextInt(100) < mCoveredPercent
+                : script == ProximityGate.RESULT_REJECTED;
+        SensorEvent event = new SensorEvent(1);
+        event.sensor = mProximitySensor;
+        event.values[0] = covered ? 0f : PROXIMITY_MAX_RANGE;
+        listener.onSensorChanged(event);
+    }
+
+    /**
+     * Makes the proximity sensor produce the given ProximityGate result from
+     * now on: covered, uncovered or no reading at all. Registered listeners
+     * get a reading ahead of anything posted to their handler after this.
+     */
+    void setProximityScript(int result) {
+        if (mProximityScript == result) {
+            return;
+        }
+        mProximityScript = result;
+        if (mSensorSilent) {
+            return;
+        }
+        for (final Map.Entry<SensorEventListener, Handler> entry : mSensorListeners.entrySet()) {
+            entry.getValue().post(new Runnable() {
+                @Override
+                public void run() {
+                    report(entry.getKey());
+                }
+            });
+        }
+    }
+
+    /**
+     * Binds a gesture code to a CMActions action preference value.
+     */
+    void bindGesture(int gesture, String prefValue) {
+        mPreferences.mValues.put(GestureActions.getPrefKey(gesture), prefValue);
+    }
+
+    void setHapticFeedback(boolean enabled) {
+        mPreferences.mValues.put("touchscreen_gesture_haptic_feedback", enabled);
+    }
+
+    long getCallCount() {
+        long total = 0;
+        for (int i = 0; i < CALL_COUNT; i++) {
+            total += mCalls.get(i);
+        }
+        return total;
+    }
+
+    void dumpCalls(PrintStream out) {
+        StringBuilder sb = new StringBuilder("  ");
+        for (int i = 0; i < CALL_COUNT; i++) {
+            sb.append(i == 0 ? "" : " ").append(CALL_NAMES[i]).append('=').append(mCalls.get(i));
+        }
+        out.println(sb);
+    }
+
+    private void call(int call, long latencyNs) {
+        if (latencyNs > 0) {
+            LockSupport.parkNanos(latencyNs);
+        }
+        mCalls.incrementAndGet(call);
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.cyanogenmod.settings.device";
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        switch (name) {
+            case POWER_SERVICE:
+                return mPowerManager;
+            case SENSOR_SERVICE:
+                return mSensorManager;
+            case VIBRATOR_SERVICE:
+                return mVibrator;
+            case KEYGUARD_SERVICE:
+                return mKeyguardManager;
+            case TORCH_SERVICE:
+                return mTorchManager;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        return mPackageManager;
+    }
+
+    @Override
+    public Resources getResources() {
+        return mResources;
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mContentResolver;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return mFilesDir;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return mPreferences;
+    }
+
+    // KeyHandler reads the CMActions files and preferences through this
+    @Override
+    public Context createPackageContext(String packageName, int flags) {
+        return this;
+    }
+
+    // Nothing is broadcast on the host, the handler keeps its initial state
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+            String broadcastPermission, Handler scheduler) {
+        return registerReceiver(receiver, filter);
+    }
+
+    @Override
+    public Intent registerReceiverAsUser(BroadcastReceiver receiver, UserHandle user,
+            IntentFilter filter, String broadcastPermission, Handler scheduler) {
+        return registerReceiver(receiver, filter);
+    }
+
+    @Override
+    public void sendBroadcastAsUser(Intent intent, UserHandle user) {
+        call(CALL_BROADCAST, mServiceLatencyNs);
+    }
+
+    @Override
+    public void startActivityAsUser(Intent intent, Bundle options, UserHandle user) {
+        call(CALL_START_ACTIVITY, mActivityLatencyNs);
+    }
+
+    @Override
+    public int checkCallingOrSelfPermission(String permission) {
+        return PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static final class Preferences implements SharedPreferences {
+        final Map<String, Object> mValues = new ConcurrentHashMap<String, Object>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return mValues;
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = mValues.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = mValues.get(key);
+            return value instanceof Boolean ? (Boolean) value : defValue;
+        }
+    }
+}
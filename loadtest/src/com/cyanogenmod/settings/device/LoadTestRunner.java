@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.os.IBinder;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak and load test for the complete KeyHandler pipeline on a host JVM.
+ *
+ * The calling thread plays the input thread: it writes a gesture code into
+ * a temp-directory copy of mx-gs/gesture_data and hands the matching key
+ * down and up to KeyHandler.handleKeyEvent() at the requested rate. The
+ * system services are HostSystem stand-ins with injected latency.
+ *
+ * Reports the input rate reached, the time handleKeyEvent() took on the
+ * input thread and the service calls made, followed by the handler's own
+ * dump: queueing delay (dispatch stage), end-to-end latency (action stage),
+ * queue drops and proximity outcomes.
+ *
+ * With --alloc-check the rate run is replaced by AllocationCheck, which
+ * feeds the given number of gestures one at a time and exits with status 1
+ * if the gesture path allocated.
+ *
+ * java -jar com.cyanogenmod.keyhandler-loadtest.jar [--rate <events/s>]
+ *     [--duration <s>] [--burst <n>] [--policy <name>] [--proximity]
+ *     [--sensor-delay-ms <n>] [--covered <percent>] [--sensor-silent]
+ *     [--proximity-timeout-ms <n>] [--service-latency-us <n>]
+ *     [--activity-latency-us <n>] [--settings-latency-us <n>] [--haptic]
+ *     [--alloc-check <events>]
+ */
+public class LoadTestRunner {
+
+    private static final int GESTURE_SCAN_CODE = 195;
+    private static final String QUEUE_POLICY_PROP = "persist.gesture.queue_policy";
+
+    // The handler is idle once no service call happened for this long
+    private static final long QUIET_NS = 500000000L;
+    private static final long MAX_DRAIN_NS = 30000000000L;
+
+    // Bindings exercised by the default gesture mix, the rest stays disabled
+    private static final Object[][] BINDINGS = {
+        { KeyHandler.DOUBLE_TAP, "wakeUp" },
+        { KeyHandler.SWIPE_X_LEFT, "prev" },
+        { KeyHandler.SWIPE_X_RIGHT, "next" },
+        { KeyHandler.SWIPE_Y_UP, "flashlight" },
+        { KeyHandler.SWIPE_Y_DOWN, "play" },
+        { KeyHandler.UNICODE_C, "camera" },
+        { KeyHandler.UNICODE_E, "unlock" },
+        { KeyHandler.UNICODE_M, "launch$com.android.music" },
+        { KeyHandler.UNICODE_O, "launch$com.android.calculator2" },
+        { KeyHandler.UNICODE_S, "doNotDisturb" },
+        { KeyHandler.UNICODE_W, "normal" },
+    };
+
+    private int mRate = 2000;
+    private int mDurationS = 10;
+    private int mBurst = 1;
+    private int mAllocEvents;
+
+    private final LatencyHistogram mInputCost = new LatencyHistogram();
+    private RandomAccessFile mGestureData;
+
+    private void writeGestureData(int gesture) throws IOException {
+        // All codes are three digits, so the previous value is overwritten in full
+        mGestureData.seek(0);
+        mGestureData.write((gesture + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void deliver(KeyHandler handler, int action, long eventTime) {
+        KeyEvent event = new KeyEvent(eventTime, eventTime, action, KeyEvent.KEYCODE_UNKNOWN,
+                0, 0, 0, GESTURE_SCAN_CODE);
+        long start = System.nanoTime();
+        handler.handleKeyEvent(event);
+        mInputCost.record(System.nanoTime() - start);
+    }
+
+    private long run(KeyHandler handler) throws IOException {
+        final int[] gestures = KeyHandler.GESTURE_CODES;
+        long intervalNs = 1000000000L * mBurst / mRate;
+        long start = System.nanoTime();
+        long deadline = start + mDurationS * 1000000000L;
+        long next = start;
+        long events = 0;
+        while (next < deadline) {
+            for (int i = 0; i < mBurst; i++) {
+                writeGestureData(gestures[(int) (events++ % gestures.length)]);
+                long eventTime = SystemClock.uptimeMillis();
+                deliver(handler, KeyEvent.ACTION_DOWN, eventTime);
+                deliver(handler, KeyEvent.ACTION_UP, eventTime);
+            }
+            next += intervalNs;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Input: events=" + events + " seconds=" + elapsed / 1e9
+                + " events_per_s=" + Math.round(events * 1e9 / elapsed));
+        return events;
+    }
+
+    static void drain(HostSystem system) {
+        long start = System.nanoTime();
+        long calls = system.getCallCount();
+        long quietSince = start;
+        while (System.nanoTime() - quietSince < QUIET_NS
+                && System.nanoTime() - start < MAX_DRAIN_NS) {
+            LockSupport.parkNanos(50000000L);
+            long now = system.getCallCount();
+            if (now != calls) {
+                calls = now;
+                quietSince = System.nanoTime();
+            }
+        }
+        System.out.println("Drain: ms=" + (quietSince - start) / 1000000L);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LoadTestRunner [--rate <events/s>] [--duration <s>]"
+                + " [--burst <n>] [--policy <name>] [--proximity] [--sensor-delay-ms <n>]"
+                + " [--covered <percent>] [--sensor-silent] [--proximity-timeout-ms <n>]"
+                + " [--service-latency-us <n>] [--activity-latency-us <n>]"
+                + " [--settings-latency-us <n>] [--haptic] [--alloc-check <events>]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File root = File.createTempFile("mx-gs", null);
+        root.delete();
+        File sysfs = new File(root, "mx-gs");
+        File filesDir = new File(root, "files");
+        sysfs.mkdirs();
+        filesDir.mkdirs();
+
+        LoadTestRunner runner = new LoadTestRunner();
+        HostSystem system = new HostSystem(filesDir);
+        system.mServiceLatencyNs = 200000L;
+        system.mActivityLatencyNs = 2000000L;
+        android.provider.Settings.sWriteLatencyNs = 1000000L;
+        boolean haptic = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--proximity".equals(arg)) {
+                    system.mProximityCheck = true;
+                } else if ("--sensor-silent".equals(arg)) {
+                    system.mSensorSilent = true;
+                } else if ("--haptic".equals(arg)) {
+                    haptic = true;
+                } else if (i + 1 >= args.length) {
+                    usage();
+                } else if ("--policy".equals(arg)) {
+                    System.setProperty(QUEUE_POLICY_PROP, args[++i]);
+                } else {
+                    long value = Long.parseLong(args[++i]);
+                    if ("--rate".equals(arg)) {
+                        runner.mRate = (int) value;
+                    } else if ("--duration".equals(arg)) {
+                        runner.mDurationS = (int) value;
+                    } else if ("--burst".equals(arg)) {
+                        runner.mBurst = (int) value;
+                    } else if ("--alloc-check".equals(arg)) {
+                        runner.mAllocEvents = (int) value;
+                    } else if ("--sensor-delay-ms".equals(arg)) {
+                        system.mSensorDelayMs = value;
+                    } else if ("--covered".equals(arg)) {
+                        system.mCoveredPercent = (int) value;
+                    } else if ("--proximity-timeout-ms".equals(arg)) {
+                        system.mProximityTimeoutMs = (int) value;
+                    } else if ("--service-latency-us".equals(arg)) {
+                        system.mServiceLatencyNs = value * 1000L;
+                    } else if ("--activity-latency-us".equals(arg)) {
+                        system.mActivityLatencyNs = value * 1000L;
+                    } else if ("--settings-latency-us".equals(arg)) {
+                        android.provider.Settings.sWriteLatencyNs = value * 1000L;
+                    } else {
+                        usage();
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (runner.mRate <= 0 || runner.mBurst <= 0 || runner.mDurationS <= 0
+                || runner.mAllocEvents < 0) {
+            usage();
+        }
+
+        for (Object[] binding : BINDINGS) {
+            system.bindGesture((Integer) binding[0], (String) binding[1]);
+        }
+        system.setHapticFeedback(haptic);
+        GestureConfig.publish(system);
+
+        File gestureData = new File(sysfs, "gesture_data");
+        runner.mGestureData = new RandomAccessFile(gestureData, "rw");
+        runner.writeGestureData(0);
+        KeyHandler handler = new KeyHandler(system, gestureData.getPath(),
+                new File(root, "gesture_trace"));
+        boolean failed = false;
+        try {
+            if (runner.mAllocEvents > 0) {
+                failed = !new AllocationCheck(system, handler, runner.mGestureData)
+                        .run(runner.mAllocEvents);
+                return;
+            }
+            runner.run(handler);
+            drain(system);
+            LatencyHistogram cost = runner.mInputCost;
+            System.out.println("handleKeyEvent (us): count=" + cost.getCount()
+                    + " p50=" + cost.getPercentileUs(0.5) + " p99=" + cost.getPercentileUs(0.99)
+                    + " max=" + cost.getMaxUs());
+            System.out.println("Service calls:");
+            system.dumpCalls(System.out);
+            System.out.flush();
+            IBinder dump = ServiceManager.getService("devicekeyhandler");
+            if (dump != null) {
+                dump.dump(FileDescriptor.out, new String[0]);
+            }
+        } finally {
+            handler.shutdown();
+            runner.mGestureData.close();
+            for (File dir : new File[] { sysfs, filesDir, root }) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+            root.delete();
+            if (failed) {
+                System.exit(1);
+            }
+        }
+    }
+}